@@ -4,10 +4,42 @@ package amazons;
 import static java.lang.Math.*;
 
 import static amazons.Piece.*;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 
-/** A Player that automatically generates moves.
+/** A Player that automatically generates moves.  It searches with
+ *  several threads at once, in one of two ways, chosen by the "split"
+ *  option.  By default ("Lazy SMP"), each thread searches its own copy
+ *  of the board, and all share one transposition table, so that each
+ *  profits from the others' results.  The threads start at different
+ *  depths, so that they tend to search different parts of the tree.
+ *  Which thread finishes what depth first depends on timing, however,
+ *  so the moves chosen are not reproducible.
+ *
+ *  Otherwise, a pool of fork/join threads divides up the tree ("split"
+ *  search).  The first root move is searched first, and gives a bound
+ *  for searching the others, which are searched in parallel.  With
+ *  split 2, the same is done at each node along the first move's line
+ *  (the "young brothers wait" for their eldest).  This gives the same
+ *  move and value as a single-threaded search to the same depth (see
+ *  splitFindMove), so that with a fixed depth (the "depth" option) the
+ *  moves chosen are reproducible.
+ *
+ *  Without splitting, the search is selective, searching only the most
+ *  promising moves, and some of them less deeply than others (see the
+ *  "lmr", "topk" and "probcut" options), to reach useful depths despite
+ *  the thousands of moves in the opening.
+ *
+ *  Once few enough squares are empty (the "solve" option), it first
+ *  tries to prove a win with an exact Solver, falling back to the
+ *  heuristic search if that runs out of time or nodes (at most half the
+ *  move's time budget) or proves a loss.  In the opening, it plays the
+ *  best move in the controller's OpeningBook, if there is one, without
+ *  searching.  Late in the game, it scores the small regions in the
+ *  controller's Tablebase, if there is one, by lookup.
  *  @author Mohammed
  */
 class AI extends Player {
@@ -18,6 +50,40 @@ class AI extends Player {
     /** A magnitude greater than a normal value. */
     private static final int INFTY = Integer.MAX_VALUE;
 
+    /** Nodes between checks of the clock during a search. */
+    private static final long CLOCK_CHECK_NODES = 256;
+    /** Number of squares on the board. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+    /** Half the width of the first aspiration window searched at each
+     *  depth after the first, in units of static score. */
+    private static final int ASPIRATION_WINDOW = 2;
+    /** Least remaining depth at which late moves are reduced. */
+    private static final int LATE_MOVE_DEPTH = 3;
+    /** Least remaining depth at which only the top moves are searched
+     *  (below it, ordering the moves by static score costs as much as
+     *  searching them). */
+    private static final int TOP_MOVES_DEPTH = 2;
+    /** Least remaining depth at which ProbCut is tried, and the depth by
+     *  which its shallow search is reduced. */
+    private static final int PROBCUT_DEPTH = 3, PROBCUT_REDUCTION = 2;
+    /** Killer moves remembered for each ply. */
+    private static final int KILLERS = 2;
+    /** History scores are halved when one of them passes this. */
+    private static final int HISTORY_LIMIT = 1 << 24;
+    /** Number of low-order bits of the ordering score of a queen move
+     *  that hold its history score (capped to fit), below its static
+     *  score (capped to the rest of the bits, which only merges won and
+     *  lost positions with the largest territory scores). */
+    private static final int HISTORY_ORDER_BITS = 23;
+    /** Least remaining depth at which a split search searches the
+     *  younger brothers of a node's first move in parallel. */
+    private static final int MIN_SPLIT_DEPTH = 2;
+    /** A split search forks the younger brothers at a node in batches of
+     *  this many per thread, narrowing the window between batches. */
+    private static final int SPLIT_BATCH = 8;
+    /** Effectively unlimited search time (nanoseconds). */
+    private static final long NO_TIME_LIMIT = Long.MAX_VALUE / 4;
+
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
     AI() {
@@ -36,120 +102,1157 @@ class AI extends Player {
 
     @Override
     String myMove() {
-        Move move = findMove();
+        Board b = board();
+        Move move = bookMove(b);
+        if (move != null) {
+            cancelPondering();
+        } else {
+            move = finishPondering(b);
+        }
+        if (move == null) {
+            setLimits(b);
+            _stop = false;
+            move = searchMove(b, option("threads"));
+        }
         _controller.reportMove(move);
         return move.toString();
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
+    /** If the "ponder" option is set, then after each of my moves, guess
+     *  the opponent's reply (the best move for it in the transposition
+     *  table), and search the position after it in the background, with
+     *  no time limit.  When the opponent's move comes in, this either
+     *  gives that search the time limits of my move, if the guess was
+     *  right, or stops it.  Either way, it returns at once, leaving
+     *  myMove to collect the result. */
+    @Override
+    void moveMade(Move move) {
         Board b = board();
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-        if (sense == 1) {
-            int score = -INFTY;
-            Iterator<Move> whiteMoves = board.legalMoves();
-            while (whiteMoves.hasNext()) {
-                if (saveMove) {
-                    _lastFoundMove = whiteMoves.next();
-                    board.makeMove(_lastFoundMove);
-                    score = max(score,
-                            findMove(board, depth - 1, false, -1, alpha, beta));
+        if (b.winner() != null) {
+            _stop = true;
+        } else if (b.turn() != myPiece()) {
+            if (option("ponder") > 0) {
+                startPondering(b);
+            }
+        } else if (_ponderer != null) {
+            if (b.key() == _ponderKey) {
+                setLimits(b);
+                _ponderHit = true;
+            } else {
+                _stop = true;
+            }
+        }
+    }
+
+    /** Return a move for the side to move in BOARD, assuming there is a
+     *  move, using THREADS search threads.  Searches to depths 1, 2, ...
+     *  in turn, stopping when the next depth is not expected to finish
+     *  within BUDGET nanoseconds, or when HARDLIMIT nanoseconds have
+     *  passed, or after the depth given by the "depth" option, if
+     *  positive.  Returns the best move of the deepest search completed
+     *  by any thread.  BOARD is unchanged on return. */
+    Move findMove(Board board, long budget, long hardLimit, int threads) {
+        setLimits(System.nanoTime(), budget, hardLimit);
+        _stop = false;
+        return searchMove(board, threads);
+    }
+
+    /** Set the time limits for a search for a move in BOARD starting
+     *  now: my share of my remaining time, or none if the "depth" option
+     *  is set. */
+    private void setLimits(Board board) {
+        long budget = timeBudget(board);
+        long hardLimit = hardLimit(budget);
+        if (option("depth") > 0) {
+            budget = hardLimit = NO_TIME_LIMIT;
+        }
+        setLimits(System.nanoTime(), budget, hardLimit);
+    }
+
+    /** Set the time limits for the current search, which began or is
+     *  taken to begin at time START (as from System.nanoTime), to BUDGET
+     *  and HARDLIMIT nanoseconds (as for findMove).  The search threads
+     *  see the new limits at their next check of the clock. */
+    private void setLimits(long start, long budget, long hardLimit) {
+        _softDeadline = start + budget;
+        _deadline = start + hardLimit;
+    }
+
+    /** Return a move for the side to move in BOARD, assuming there is a
+     *  move, using THREADS search threads, as for findMove, but with the
+     *  time limits and _stop already set. */
+    private Move searchMove(Board board, int threads) {
+        long start = System.nanoTime();
+        allocateTable();
+        threads = max(1, threads);
+        if (board.emptySquares() <= option("solve")) {
+            Move move = solvedMove(board, start);
+            if (move != null) {
+                return move;
+            }
+        }
+        int maxDepth = maxDepth(board);
+        int split = option("split");
+        if (split > 0) {
+            return splitIterate(board, maxDepth, threads, split > 1);
+        }
+        Searcher main = searcher(0);
+        main.start(board, true);
+        Thread[] helpers = new Thread[threads - 1];
+        for (int k = 1; k < threads; k += 1) {
+            Searcher helper = searcher(k);
+            helper.start(new Board(board), true);
+            int firstDepth = 1 + k % 2;
+            helpers[k - 1] =
+                new Thread(() -> helper.iterate(firstDepth, maxDepth),
+                           "search helper " + k);
+            helpers[k - 1].setDaemon(true);
+            helpers[k - 1].start();
+        }
+
+        double branching = board.mobility(board.turn());
+        if (main._topMoves > 0) {
+            branching = min(branching, main._topMoves);
+        }
+        long prevNodes = 0;
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            long iterationStart = System.nanoTime();
+            int score = main.search(depth);
+            if (main._aborted || decided(score)) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (prevNodes > 0) {
+                branching = (double) main._nodes / prevNodes;
+            }
+            prevNodes = main._nodes;
+            if (now + (now - iterationStart) * branching > _softDeadline) {
+                break;
+            }
+        }
+        _stop = true;
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Searcher best = main;
+        for (int k = 1; k < threads; k += 1) {
+            if (_searchers[k]._completedDepth > best._completedDepth) {
+                best = _searchers[k];
+            }
+        }
+        _completedDepth = best._completedDepth;
+        _completedScore = best._completedScore;
+        int move = best._completedMove;
+        if (move == 0) {
+            move = main._bestMove;
+        }
+        if (move == 0) {
+            MoveBuffer moves = main.buffer(0);
+            board.legalMoves(board.turn(), moves);
+            move = moves.get(0);
+        }
+        return Move.mv(move);
+    }
+
+    /** Return a move for the side to move in BOARD, found by searching
+     *  DEPTH levels with a split search using THREADS threads, or null if
+     *  there is none.  The result is the same as that of findMove(BOARD,
+     *  DEPTH) by an AI with an empty transposition table.  If SPLITPV,
+     *  splits the search at each node along the first move's line as
+     *  well as at the root.  BOARD is unchanged on return. */
+    Move splitFindMove(Board board, int depth, int threads, boolean splitPV) {
+        _deadline = Long.MAX_VALUE;
+        _stop = false;
+        allocateTable();
+        startSplitSearch(threads);
+        _completedScore = splitSearch(board, depth, splitPV);
+        _completedDepth = depth;
+        return _splitBestMove == 0 ? null : Move.mv(_splitBestMove);
+    }
+
+    /** Return a move for the side to move in BOARD, found by split
+     *  searches using THREADS threads to depths 1, 2, ... MAXDEPTH in
+     *  turn, assuming there is a move.  Stops when the next depth is not
+     *  expected to finish by _softDeadline, or when _deadline passes, and
+     *  returns the best move of the deepest completed search.  If
+     *  SPLITPV, splits the search at each node along the first move's
+     *  line as well as at the root.  BOARD is unchanged on return. */
+    private Move splitIterate(Board board, int maxDepth, int threads,
+                              boolean splitPV) {
+        startSplitSearch(threads);
+        _completedDepth = 0;
+        double branching = board.mobility(board.turn());
+        long prevNodes = 0;
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            long iterationStart = System.nanoTime();
+            int score = splitSearch(board, depth, splitPV);
+            if (_stop) {
+                break;
+            }
+            _completedDepth = depth;
+            if (decided(score)) {
+                break;
+            }
+            long now = System.nanoTime(), nodes = _splitNodes.sum();
+            if (prevNodes > 0) {
+                branching = (double) nodes / prevNodes;
+            }
+            prevNodes = nodes;
+            if (now + (now - iterationStart) * branching > _softDeadline) {
+                break;
+            }
+        }
+        int move = _splitBestMove;
+        if (move == 0) {
+            MoveBuffer moves = new MoveBuffer();
+            board.legalMoves(board.turn(), moves);
+            move = moves.get(0);
+        }
+        return Move.mv(move);
+    }
+
+    /** Prepare for a split search with THREADS threads: clear the
+     *  transposition table (whose entries from earlier searches could
+     *  otherwise change the result) and the best move found, and set up
+     *  _pool. */
+    private void startSplitSearch(int threads) {
+        _table.clear();
+        _splitBestMove = 0;
+        if (_pool == null || _pool.getParallelism() != threads) {
+            if (_pool != null) {
+                _pool.shutdown();
+            }
+            _pool = new ForkJoinPool(threads);
+        }
+    }
+
+    /** Search BOARD to DEPTH levels with a split search, splitting
+     *  the first move's line iff SPLITPV, and return its value.  Records
+     *  the best move in _splitBestMove, unless stopped (in which case
+     *  _stop is true).  The best move of the previous search is searched
+     *  first.  BOARD is unchanged on return. */
+    private int splitSearch(Board board, int depth, boolean splitPV) {
+        _splitNodes.reset();
+        return _pool.invoke(new SplitTask(new Board(board), depth, 0,
+                                          -INFTY, INFTY, SplitTask.ROOT,
+                                          splitPV));
+    }
+
+    /** A task that searches part of the tree for a split search. */
+    private class SplitTask extends RecursiveTask<Integer> {
+
+        /** Kinds of task: the root of the search, the first move at a node
+         *  whose younger brothers are split off (or its first move, and so
+         *  on), or the search of a younger brother by a single thread. */
+        static final int ROOT = 0, PV = 1, SERIAL = 2;
+
+        /** A task of kind KIND that searches BOARD, PLY moves from the
+         *  root of the search, as for Searcher.findMove(BOARD, DEPTH, PLY,
+         *  false, ALPHA, BETA).  Splits
+         *  nodes of the first move's line as well as the root iff
+         *  SPLITPV.  BOARD is owned by the task, which leaves it
+         *  unchanged. */
+        SplitTask(Board board, int depth, int ply, int alpha,
+                  int beta, int kind, boolean splitPV) {
+            _board = board;
+            _ply = ply;
+            _depth = depth;
+            _alpha = alpha;
+            _beta = beta;
+            _kind = kind;
+            _splitPV = splitPV;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (_kind == SERIAL
+                || _kind == PV && (!_splitPV || _depth < MIN_SPLIT_DEPTH)
+                || _depth == 0 || _board.winner() != null) {
+                return serialSearch();
+            }
+            return splitSearch();
+        }
+
+        /** Search my position with this thread's Searcher, returning its
+         *  value.  Sets _stop if the search runs out of time. */
+        private int serialSearch() {
+            Searcher searcher = _workerSearchers.get();
+            searcher.startTask(_board);
+            int score = searcher.findMove(_board, _depth, _ply, false,
+                                          _alpha, _beta);
+            _splitNodes.add(searcher._nodes);
+            if (searcher._aborted) {
+                _stop = true;
+            }
+            return score;
+        }
+
+        /** Search my position by searching its first move and then the
+         *  others in parallel batches, returning its value.  The first
+         *  move is the previous best move at the root, and otherwise the
+         *  transposition table's best move; the others are searched in
+         *  order of static score, as at the root of a serial search, so
+         *  that the best move at the root (the first with the best value)
+         *  is the same.  At the root, records the best move in
+         *  _splitBestMove, unless stopped. */
+        private int splitSearch() {
+            Board board = _board;
+            int alpha = _alpha, beta = _beta;
+            MoveBuffer moves = new MoveBuffer();
+            board.legalMoves(board.turn(), moves);
+            int first = _kind == ROOT ? _splitBestMove
+                : TranspositionTable.move(_table.probe(board.key()));
+            int ordered = first != 0 && moves.moveToFront(first) ? 1 : 0;
+            sortByStaticScore(board, moves, ordered);
+
+            int bestMove = moves.get(0);
+            board.makeMove(bestMove);
+            int bestScore =
+                -new SplitTask(board, _depth - 1, _ply + 1, -beta, -alpha,
+                               PV, _splitPV).compute();
+            board.undo();
+            alpha = max(alpha, bestScore);
+            int batchSize = SPLIT_BATCH * getPool().getParallelism();
+            for (int b = 1; b < moves.size() && alpha < beta && !_stop;
+                 b += batchSize) {
+                int n = min(batchSize, moves.size() - b);
+                SplitTask[] brothers = new SplitTask[n];
+                for (int i = 0; i < n; i += 1) {
+                    Board child = new Board(board);
+                    child.makeMove(moves.get(b + i));
+                    brothers[i] =
+                        new SplitTask(child, _depth - 1, _ply + 1, -beta,
+                                      -alpha, SERIAL, _splitPV);
+                }
+                invokeAll(brothers);
+                for (int i = 0; i < n; i += 1) {
+                    int score = -brothers[i].join();
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestMove = moves.get(b + i);
+                    }
+                }
+                alpha = max(alpha, bestScore);
+            }
+            if (_stop) {
+                return bestScore;
+            }
+            if (_kind == ROOT) {
+                _splitBestMove = bestMove;
+            }
+            int bound =
+                bestScore <= _alpha ? TranspositionTable.UPPER_BOUND
+                : bestScore >= _beta ? TranspositionTable.LOWER_BOUND
+                : TranspositionTable.EXACT;
+            _table.store(board.key(), _depth, bound,
+                         toTable(bestScore, _ply), bestMove);
+            return bestScore;
+        }
+
+        /** The position searched. */
+        private final Board _board;
+        /** Remaining depth at my position, and its distance in moves
+         *  from the root of the search. */
+        private final int _depth, _ply;
+        /** Search window, as for Searcher.findMove. */
+        private final int _alpha, _beta;
+        /** My kind: ROOT, PV, or SERIAL. */
+        private final int _kind;
+        /** True iff the nodes of the first move's line are split. */
+        private final boolean _splitPV;
+    }
+
+    /** Return a move for the side to move in BOARD, found by searching
+     *  every move DEPTH levels with a single thread, or null if there is
+     *  none.  BOARD is unchanged on return. */
+    Move findMove(Board board, int depth) {
+        _deadline = Long.MAX_VALUE;
+        _stop = false;
+        allocateTable();
+        Searcher main = searcher(0);
+        main.start(board, false);
+        _completedScore = main.search(depth);
+        _completedDepth = depth;
+        return main._completedMove == 0 ? null : Move.mv(main._completedMove);
+    }
+
+    /** Return true iff SCORE is the value of a finished game. */
+    private static boolean decided(int score) {
+        return abs(score) >= WINNING_VALUE - Board.MAX_MOVES;
+    }
+
+    /** Return the number of positions visited by the main thread in the
+     *  last search (or in its last iteration). */
+    long nodes() {
+        return searcher(0)._nodes;
+    }
+
+    /** Return the number of cutoffs by the main thread in the last
+     *  search (or in its last iteration). */
+    long cutoffs() {
+        return searcher(0)._cutoffs;
+    }
+
+    /** Return the number of cutoffs by the main thread in the last
+     *  search (or in its last iteration) that came from the first move
+     *  searched. */
+    long firstMoveCutoffs() {
+        return searcher(0)._firstMoveCutoffs;
+    }
+
+    /** Return the depth of the search that gave the last move found. */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the value, for the side to move, of the search that gave
+     *  the last move found by findMove or splitFindMove. */
+    int completedScore() {
+        return _completedScore;
+    }
+
+    /** Return my Kth Searcher, creating it if needed. */
+    private Searcher searcher(int k) {
+        if (k >= _searchers.length) {
+            _searchers = Arrays.copyOf(_searchers, k + 1);
+        }
+        if (_searchers[k] == null) {
+            _searchers[k] = new Searcher();
+        }
+        return _searchers[k];
+    }
+
+    /** The fork/join pool for split searches, or null if none has been
+     *  needed. */
+    private ForkJoinPool _pool;
+    /** The Searchers of the threads of _pool. */
+    private final ThreadLocal<Searcher> _workerSearchers =
+        ThreadLocal.withInitial(Searcher::new);
+    /** The territory evaluator of each thread that calls staticScore,
+     *  consulting the controller's tablebase, if any. */
+    private final ThreadLocal<Territory> _territories =
+        ThreadLocal.withInitial(() -> new Territory(
+            _controller == null ? null : _controller.tablebase()));
+    /** The best root move (or 0) of the last completed split search. */
+    private volatile int _splitBestMove;
+    /** Positions visited by the current split search. */
+    private final LongAdder _splitNodes = new LongAdder();
+
+    /** Searchers for each Lazy SMP search thread, the first for the
+     *  thread that called findMove.  They are kept from move to move,
+     *  along with their history scores. */
+    private Searcher[] _searchers = new Searcher[0];
+    /** Time (System.nanoTime) at which the current search must stop.
+     *  Pondering changes it while the search runs. */
+    private volatile long _deadline;
+    /** Time (System.nanoTime) after which the current search starts no
+     *  iteration that it does not expect to finish by then. */
+    private volatile long _softDeadline;
+    /** True when all threads of the current search should stop. */
+    private volatile boolean _stop;
+    /** Depth of the search that gave the last move found. */
+    private int _completedDepth;
+    /** Value of the search that gave the last move found by findMove or
+     *  splitFindMove. */
+    private int _completedScore;
+
+    /** The search state of one thread. */
+    private class Searcher {
+
+        /** Prepare to search BOARD: clear the killer moves and age the
+         *  history scores.  If SELECTIVE, the search uses the late move
+         *  reductions, top moves and ProbCut margin given by the "lmr",
+         *  "topk" and "probcut" options, and otherwise searches every
+         *  move to full depth. */
+        void start(Board board, boolean selective) {
+            _board = board;
+            _lateMoves = selective ? option("lmr") : 0;
+            _topMoves = selective ? option("topk") : 0;
+            _spearThrows = option("spears");
+            _probCutMargin = selective ? option("probcut") : 0;
+            _aborted = false;
+            _bestMove = _completedMove = _completedDepth = 0;
+            for (int[] killers : _killers) {
+                Arrays.fill(killers, 0);
+            }
+            ageHistory();
+        }
+
+        /** Prepare to search BOARD as part of a split search, keeping my
+         *  killer moves and history. */
+        void startTask(Board board) {
+            _board = board;
+            _lateMoves = _topMoves = _probCutMargin = 0;
+            _aborted = false;
+            _nodes = 0;
+        }
+
+        /** Search my board to depths FIRSTDEPTH, FIRSTDEPTH + 1, ...,
+         *  MAXDEPTH in turn, until a search is stopped or finds the game
+         *  decided. */
+        void iterate(int firstDepth, int maxDepth) {
+            for (int depth = firstDepth; depth <= maxDepth; depth += 1) {
+                int score = search(depth);
+                if (_aborted || decided(score)) {
+                    break;
+                }
+            }
+        }
+
+        /** Search my board to DEPTH levels, returning its value for the
+         *  side to move.  Unless the search is stopped first, records the
+         *  best move, depth and value in _completedMove, _completedDepth
+         *  and _completedScore.  After completed searches to depths DEPTH-2
+         *  and DEPTH-1, first searches with an aspiration window of
+         *  ASPIRATION_WINDOW on either side of the value found at DEPTH-2
+         *  (territory values swing between odd and even depths, so that
+         *  is the better guess), widening the window on the side the value
+         *  falls outside, by twice as much each time, until it falls
+         *  inside. */
+        int search(int depth) {
+            _nodes = _cutoffs = _firstMoveCutoffs = 0;
+            int alpha = -INFTY, beta = INFTY;
+            int delta = ASPIRATION_WINDOW;
+            if (_completedDepth > 1 && _completedDepth == depth - 1
+                && !decided(_previousScore)) {
+                alpha = _previousScore - delta;
+                beta = _previousScore + delta;
+            }
+            int score;
+            while (true) {
+                score = findMove(_board, depth, 0, true, alpha, beta);
+                if (_aborted) {
+                    return score;
+                }
+                if (score <= alpha && alpha != -INFTY) {
+                    alpha = decided(score) ? -INFTY : score - delta;
+                } else if (score >= beta && beta != INFTY) {
+                    beta = decided(score) ? INFTY : score + delta;
+                } else {
+                    break;
+                }
+                delta *= 2;
+            }
+            _completedMove = _bestMove;
+            _completedDepth = depth;
+            _previousScore = _completedScore;
+            _completedScore = score;
+            return score;
+        }
+
+        /** Find a move from position BOARD and return its value for the
+         *  side to move, recording the move found in _bestMove iff
+         *  SAVEMOVE.  The move should have maximal value, or have value
+         *  >= BETA.  A value <= ALPHA is only an upper bound, and one >=
+         *  BETA only a lower bound.  Searches up to DEPTH levels.
+         *  Searching at level 0 simply returns a static estimate of the
+         *  board value and does not set _bestMove.  A game finished PLY
+         *  moves from the root has value +-(WINNING_VALUE - PLY), so that
+         *  quicker wins are preferred, even when reductions search the
+         *  lines to them less deeply than others.  Results are
+         *  recorded in, and taken from, the transposition table.  The best
+         *  move recorded there for BOARD is searched first, then the
+         *  killer moves for PLY (the number of moves BOARD is from the
+         *  root of the search, which reductions do not change), then the
+         *  rest in order of history.
+         *  If SAVEMOVE, the move in _bestMove (if any) is searched first
+         *  instead, and the rest in order of static score, as in a split
+         *  search.  This is a principal variation search: moves after the
+         *  first are searched with a null window, just to show that they
+         *  are no better than the best so far, and searched again with
+         *  the full window only if they are.  A selective search (see
+         *  start) searches only the top moves at nodes at least
+         *  TOP_MOVES_DEPTH levels from the leaves: the hash and killer
+         *  moves, and then the best spear throws of the queen moves in
+         *  order of static score, ties broken by history.  It searches late
+         *  moves one level less deeply unless they fail high, and returns
+         *  at once when a search PROBCUT_REDUCTION levels shallower fails
+         *  high against BETA plus the ProbCut margin (when that sum is
+         *  short of the value of a won game).  If the search is
+         *  stopped, sets _aborted and returns a meaningless value;
+         *  _bestMove is then the best move among those fully searched. */
+        private int findMove(Board board, int depth, int ply,
+                             boolean saveMove, int alpha, int beta) {
+            _nodes += 1;
+            if (outOfTime()) {
+                return 0;
+            }
+            Piece winner = board.winner();
+            if (winner != null) {
+                int value = WINNING_VALUE - ply;
+                return winner == board.turn() ? value : -value;
+            }
+            if (depth == 0) {
+                int score = staticScore(board);
+                return board.turn() == WHITE ? score : -score;
+            }
+            long entry = _table.probe(board.key());
+            int hashMove = TranspositionTable.move(entry);
+            if (entry != 0 && !saveMove
+                && TranspositionTable.depth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT) {
+                    return score;
+                } else if (bound == TranspositionTable.LOWER_BOUND) {
                     alpha = max(alpha, score);
-                    board.undo();
                 } else {
-                    board.makeMove(whiteMoves.next());
-                    score = max(score,
-                            findMove(board, depth - 1, false, -1, alpha, beta));
-                    alpha = max(alpha, beta);
-                    board.undo();
+                    beta = min(beta, score);
                 }
                 if (alpha >= beta) {
-                    break;
+                    return score;
                 }
             }
-            return score;
-        } else {
-            int score = INFTY;
-            Iterator<Move> blackMoves = board.legalMoves();
-            while (blackMoves.hasNext()) {
+            if (_probCutMargin > 0 && !saveMove && depth >= PROBCUT_DEPTH
+                && !decided(beta)
+                && (long) beta + _probCutMargin
+                   < WINNING_VALUE - Board.MAX_MOVES) {
+                int bound = beta + _probCutMargin;
+                int score = findMove(board, depth - PROBCUT_REDUCTION, ply,
+                                     false, bound - 1, bound);
+                if (_aborted || score >= bound) {
+                    return score;
+                }
+            }
+            int alpha0 = alpha;
+            MoveBuffer moves = buffer(depth);
+            if (saveMove && _bestMove != 0) {
+                hashMove = _bestMove;
+            }
+            boolean staged = _topMoves > 0 && depth >= TOP_MOVES_DEPTH
+                && board.mobility(board.turn()) > _topMoves;
+            MoveBuffer queenMoves = null;
+            int n, ordered, nextQueenMove = 0;
+            if (staged) {
+                queenMoves = queenBuffer(depth);
+                board.queenMoves(board.turn(), queenMoves);
+                sortQueenMoves(board, queenMoves);
+                moves.clear();
+                if (hashMove != 0 && board.isLegal(hashMove)) {
+                    moves.add(hashMove);
+                }
+                for (int killer : _killers[ply]) {
+                    if (killer != 0 && killer != hashMove
+                        && board.isLegal(killer)) {
+                        moves.add(killer);
+                    }
+                }
+                ordered = moves.size();
+                n = _topMoves;
+            } else {
+                n = board.legalMoves(board.turn(), moves);
+                ordered =
+                    hashMove != 0 && moves.moveToFront(hashMove) ? 1 : 0;
                 if (saveMove) {
-                    _lastFoundMove = blackMoves.next();
-                    board.makeMove(_lastFoundMove);
-                    score = min(score,
-                            findMove(board, depth - 1, false, 1, alpha, beta));
-                    beta = max(beta, score);
-                    board.undo();
+                    sortByStaticScore(board, moves, ordered);
+                }
+            }
+            boolean killersPlaced = saveMove || staged,
+                historySorted = saveMove || staged;
+            int bestScore = -INFTY;
+            int bestMove = 0;
+            for (int i = 0; i < n; i += 1) {
+                while (staged && i == moves.size()
+                       && nextQueenMove < queenMoves.size()) {
+                    addSpearThrows(board, queenMoves.get(nextQueenMove),
+                                   moves, ordered);
+                    nextQueenMove += 1;
+                }
+                if (i == moves.size()) {
+                    break;
+                }
+                if (i == ordered && !killersPlaced) {
+                    ordered = placeKillers(moves, i, ply);
+                    killersPlaced = true;
+                }
+                if (i == ordered && !historySorted) {
+                    sortByHistory(moves, i);
+                    historySorted = true;
+                }
+                int move = moves.get(i);
+                board.makeMove(move);
+                int score;
+                if (i == 0) {
+                    score = -findMove(board, depth - 1, ply + 1, false,
+                                      -beta, -alpha);
                 } else {
-                    board.makeMove(blackMoves.next());
-                    score = min(score,
-                            findMove(board, depth - 1, false, 1, alpha, beta));
-                    beta = min(score, beta);
-                    board.undo();
+                    int reduction = _lateMoves > 0 && !saveMove
+                        && i >= max(_lateMoves, ordered)
+                        && depth >= LATE_MOVE_DEPTH ? 1 : 0;
+                    score = -findMove(board, depth - 1 - reduction, ply + 1,
+                                      false, -alpha - 1, -alpha);
+                    if (reduction > 0 && score > alpha) {
+                        score = -findMove(board, depth - 1, ply + 1, false,
+                                          -alpha - 1, -alpha);
+                    }
+                    if (score > alpha && score < beta) {
+                        score = -findMove(board, depth - 1, ply + 1, false,
+                                          -beta, -alpha);
+                    }
+                }
+                board.undo();
+                if (_aborted) {
+                    return bestScore;
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = move;
+                    if (saveMove) {
+                        _bestMove = move;
+                    }
                 }
+                alpha = max(alpha, bestScore);
                 if (alpha >= beta) {
+                    _cutoffs += 1;
+                    if (i == 0) {
+                        _firstMoveCutoffs += 1;
+                    }
+                    recordCutoff(move, depth, ply);
                     break;
                 }
             }
-            return score;
+            int bound =
+                bestScore <= alpha0 ? TranspositionTable.UPPER_BOUND
+                : bestScore >= beta ? TranspositionTable.LOWER_BOUND
+                : TranspositionTable.EXACT;
+            _table.store(board.key(), depth, bound,
+                         toTable(bestScore, ply), bestMove);
+            return bestScore;
+        }
+
+        /** Add to MOVES the _spearThrows moves with the best static
+         *  scores among those that complete the queen move in packed
+         *  QUEENMOVE (as from Board.queenMoves) in BOARD, other than the
+         *  first ORDERED moves of MOVES, best first. */
+        private void addSpearThrows(Board board, int queenMove,
+                                    MoveBuffer moves, int ordered) {
+            MoveBuffer throwsBuffer = _spearBuffer;
+            throwsBuffer.clear();
+            int n = board.spearThrows(Move.fromIndex(queenMove),
+                                      Move.toIndex(queenMove), throwsBuffer);
+            sortByStaticScore(board, throwsBuffer, 0);
+            for (int k = 0, added = 0; k < n && added < _spearThrows;
+                 k += 1) {
+                int move = throwsBuffer.get(k);
+                boolean searched = false;
+                for (int j = 0; j < ordered; j += 1) {
+                    searched |= moves.get(j) == move;
+                }
+                if (!searched) {
+                    moves.add(move);
+                    added += 1;
+                }
+            }
+        }
+
+        /** Sort QUEENMOVES, the queen moves in BOARD (as from
+         *  Board.queenMoves), into decreasing order of the static score,
+         *  for the side to move, of the positions they lead to, breaking
+         *  ties by the history scores of their from and to squares.
+         *  BOARD is unchanged on return. */
+        private void sortQueenMoves(Board board, MoveBuffer queenMoves) {
+            int sense = board.turn() == WHITE ? 1 : -1;
+            int maxScore = (1 << (30 - HISTORY_ORDER_BITS)) - 1,
+                maxHistory = (1 << HISTORY_ORDER_BITS) - 1;
+            for (int k = 0; k < queenMoves.size(); k += 1) {
+                int move = queenMoves.get(k);
+                board.makeMove(move);
+                int score = sense * staticScore(board);
+                board.undo();
+                score = max(-maxScore, min(maxScore, score));
+                int history = min(maxHistory, _moveHistory[
+                    Move.fromIndex(move) * SQUARES + Move.toIndex(move)]);
+                queenMoves.setScore(k, score << HISTORY_ORDER_BITS
+                                    | history);
+            }
+            queenMoves.sortByScore(0);
+        }
+
+        /** Move the killer moves for PLY that are among the moves at
+         *  positions START and later in MOVES to positions START, START+1,
+         *  ..., and return the position after the last of them. */
+        private int placeKillers(MoveBuffer moves, int start, int ply) {
+            int k = start;
+            for (int killer : _killers[ply]) {
+                if (killer != 0 && moves.moveTo(killer, k)) {
+                    k += 1;
+                }
+            }
+            return k;
+        }
+
+        /** Sort the moves at positions START and later in MOVES into
+         *  decreasing order of history score: the sum of the from-to and
+         *  to-spear history scores. */
+        private void sortByHistory(MoveBuffer moves, int start) {
+            for (int k = start; k < moves.size(); k += 1) {
+                int move = moves.get(k);
+                int to = Move.toIndex(move);
+                int from = Move.fromIndex(move), spear = Move.spearIndex(move);
+                moves.setScore(k, _moveHistory[from * SQUARES + to]
+                               + _spearHistory[to * SQUARES + spear]);
+            }
+            moves.sortByScore(start);
+        }
+
+        /** Record that packed MOVE caused a cutoff at PLY in a search with
+         *  DEPTH levels remaining: make it the first killer move for PLY,
+         *  and add to its history scores, more for deeper searches. */
+        private void recordCutoff(int move, int depth, int ply) {
+            int[] killers = _killers[ply];
+            if (killers[0] != move) {
+                System.arraycopy(killers, 0, killers, 1, KILLERS - 1);
+                killers[0] = move;
+            }
+            int to = Move.toIndex(move);
+            int moveIndex = Move.fromIndex(move) * SQUARES + to,
+                spearIndex = to * SQUARES + Move.spearIndex(move);
+            _moveHistory[moveIndex] += depth * depth;
+            _spearHistory[spearIndex] += depth * depth;
+            if (_moveHistory[moveIndex] > HISTORY_LIMIT
+                || _spearHistory[spearIndex] > HISTORY_LIMIT) {
+                ageHistory();
+            }
+        }
+
+        /** Halve all history scores, so that recent cutoffs count more
+         *  than older ones. */
+        private void ageHistory() {
+            for (int k = 0; k < _moveHistory.length; k += 1) {
+                _moveHistory[k] /= 2;
+                _spearHistory[k] /= 2;
+            }
+        }
+
+        /** Return true iff the current search is past its deadline or has
+         *  been stopped, setting _aborted if so.  These are only checked
+         *  every CLOCK_CHECK_NODES nodes. */
+        private boolean outOfTime() {
+            if (!_aborted && _nodes % CLOCK_CHECK_NODES == 0
+                && (_stop || System.nanoTime() > _deadline)) {
+                _aborted = true;
+            }
+            return _aborted;
+        }
+
+        /** Return the buffer of queen moves reserved for searches with
+         *  DEPTH levels remaining, creating it if needed. */
+        private MoveBuffer queenBuffer(int depth) {
+            if (depth >= _queenBuffers.length) {
+                _queenBuffers = Arrays.copyOf(_queenBuffers, depth + 1);
+            }
+            if (_queenBuffers[depth] == null) {
+                _queenBuffers[depth] = new MoveBuffer();
+            }
+            return _queenBuffers[depth];
         }
+
+        /** Return the move buffer reserved for searches with DEPTH levels
+         *  remaining, creating it if needed. */
+        private MoveBuffer buffer(int depth) {
+            if (depth >= _buffers.length) {
+                _buffers = Arrays.copyOf(_buffers, depth + 1);
+            }
+            if (_buffers[depth] == null) {
+                _buffers[depth] = new MoveBuffer();
+            }
+            return _buffers[depth];
+        }
+
+        /** The board I search. */
+        private Board _board;
+        /** Move buffers for each remaining search depth, so that a search
+         *  generates moves without allocation. */
+        private MoveBuffer[] _buffers = new MoveBuffer[0];
+        /** Buffers of queen moves for each remaining search depth. */
+        private MoveBuffer[] _queenBuffers = new MoveBuffer[0];
+        /** Buffer for the spear throws of a single queen move. */
+        private final MoveBuffer _spearBuffer = new MoveBuffer();
+        /** Number of moves at each node searched before late move
+         *  reductions start, or 0 for none. */
+        private int _lateMoves;
+        /** Number of moves searched at interior nodes, or 0 for all. */
+        private int _topMoves;
+        /** Number of spear throws searched for each queen move, where
+         *  only the top moves are searched. */
+        private int _spearThrows;
+        /** The ProbCut margin, or 0 for no ProbCut. */
+        private int _probCutMargin;
+        /** _killers[P] holds the packed moves (or 0) that most recently
+         *  caused cutoffs at ply P, most recent first. */
+        private final int[][] _killers =
+            new int[Board.MAX_MOVES + 1][KILLERS];
+        /** History scores of moves by their from and to squares, indexed
+         *  by from * SQUARES + to. */
+        private final int[] _moveHistory = new int[SQUARES * SQUARES];
+        /** History scores of spear throws by the squares thrown from and
+         *  to, indexed by to * SQUARES + spear. */
+        private final int[] _spearHistory = new int[SQUARES * SQUARES];
+        /** The best packed move (or 0) found so far at the root of the
+         *  current search. */
+        private int _bestMove;
+        /** The best packed move (or 0), the depth, and the value for the
+         *  side to move of the deepest completed search. */
+        private int _completedMove, _completedDepth, _completedScore;
+        /** The value of the completed search before the deepest. */
+        private int _previousScore;
+        /** True iff the current search ran out of time or was stopped. */
+        private boolean _aborted;
+        /** Number of positions visited by the current search
+         *  iteration. */
+        private long _nodes;
+        /** Numbers of cutoffs, and of cutoffs by the first move searched,
+         *  in the current search iteration. */
+        private long _cutoffs, _firstMoveCutoffs;
+    }
+
+    /** Sort the moves at positions START and later in MOVES, the legal
+     *  moves in BOARD, into decreasing order of the static score, for the
+     *  side to move in BOARD, of the positions they lead to.  BOARD is
+     *  unchanged on return. */
+    private void sortByStaticScore(Board board, MoveBuffer moves,
+                                   int start) {
+        int sense = board.turn() == WHITE ? 1 : -1;
+        for (int k = start; k < moves.size(); k += 1) {
+            board.makeMove(moves.get(k));
+            moves.setScore(k, sense * staticScore(board));
+            board.undo();
+        }
+        moves.sortByScore(start);
+    }
+
+    /** Return SCORE, the value of a position PLY moves from the root of
+     *  a search, in the form stored in the transposition table.  The
+     *  value of a finished game depends on its distance from the root,
+     *  so the table records it relative to the position itself, which
+     *  may be reached at another ply in a later search. */
+    private static int toTable(int score, int ply) {
+        if (score >= WINNING_VALUE - 2 * Board.MAX_MOVES) {
+            return score + ply;
+        } else if (score <= -WINNING_VALUE + 2 * Board.MAX_MOVES) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    /** Return the value of a position PLY moves from the root of a search
+     *  given SCORE, its value as stored in the transposition table.  The
+     *  inverse of toTable. */
+    private static int fromTable(int score, int ply) {
+        if (score >= WINNING_VALUE - 2 * Board.MAX_MOVES) {
+            return score - ply;
+        } else if (score <= -WINNING_VALUE + 2 * Board.MAX_MOVES) {
+            return score + ply;
+        }
+        return score;
     }
 
+    /** Make _table a transposition table of the size given by the "hash"
+     *  option, keeping the current table (and its contents) if it already
+     *  has that size.  Likewise make _evalCache an EvalCache of the size
+     *  given by the "evalcache" option, or null if that is 0. */
+    private void allocateTable() {
+        int megabytes = option("hash");
+        if (_table == null || megabytes != _tableMegabytes) {
+            _table = new TranspositionTable(megabytes);
+            _tableMegabytes = megabytes;
+        }
+        megabytes = option("evalcache");
+        if (megabytes <= 0) {
+            _evalCache = null;
+        } else if (_evalCache == null || megabytes != _evalCacheMegabytes) {
+            _evalCache = new EvalCache(megabytes);
+            _evalCacheMegabytes = megabytes;
+        }
+    }
+
+    /** Return the cache of static scores, or null if there is none. */
+    EvalCache evalCache() {
+        return _evalCache;
+    }
+
+    /** The transposition table, which is kept from move to move and
+     *  shared by all search threads. */
+    private TranspositionTable _table;
+    /** The size of _table in megabytes, as requested. */
+    private int _tableMegabytes;
+    /** The cache of static scores, kept from move to move and shared by
+     *  all search threads, or null if there is none. */
+    private volatile EvalCache _evalCache;
+    /** The size of _evalCache in megabytes, as requested. */
+    private int _evalCacheMegabytes;
+
+    /** Start searching, in a background thread, the position after the
+     *  move the transposition table gives for the opponent in BOARD (the
+     *  position after my move), if there is one and the game is not
+     *  over. */
+    private void startPondering(Board board) {
+        if (_table == null) {
+            return;
+        }
+        int reply = TranspositionTable.move(_table.probe(board.key()));
+        if (reply == 0 || !board.isLegal(reply)) {
+            return;
+        }
+        Board guess = new Board(board);
+        guess.makeMove(reply);
+        if (guess.winner() != null) {
+            return;
+        }
+        _ponderKey = guess.key();
+        _ponderReply = reply;
+        _ponderHit = false;
+        _ponderMove = null;
+        setLimits(System.nanoTime(), NO_TIME_LIMIT, NO_TIME_LIMIT);
+        _stop = false;
+        int threads = option("threads");
+        _ponderer = new Thread(() -> _ponderMove = searchMove(guess, threads),
+                               "ponder");
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    /** If I am pondering, wait for the search to finish, and return its
+     *  move if it was searching BOARD, or null if not (in which case it
+     *  is stopped first).  Otherwise, return null. */
+    private Move finishPondering(Board board) {
+        if (_ponderer == null) {
+            return null;
+        }
+        if (board.key() != _ponderKey) {
+            cancelPondering();
+            return null;
+        }
+        if (!_ponderHit) {
+            setLimits(board);
+        }
+        joinPonderer();
+        return _ponderMove;
+    }
+
+    /** Return true iff I am pondering: searching in the background, or
+     *  holding the result of such a search for my next move. */
+    boolean pondering() {
+        return _ponderer != null;
+    }
+
+    /** Return the opponent's reply I am pondering, or null if I am not
+     *  pondering. */
+    Move expectedReply() {
+        return _ponderer == null ? null : Move.mv(_ponderReply);
+    }
+
+    /** If I am pondering, stop and wait for the search. */
+    void cancelPondering() {
+        if (_ponderer != null) {
+            _stop = true;
+            joinPonderer();
+        }
+    }
+
+    /** Wait for _ponderer to finish, and clear it. */
+    private void joinPonderer() {
+        try {
+            _ponderer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        _ponderer = null;
+    }
+
+    /** Return the best legal move for BOARD in the controller's opening
+     *  book, or null if there is no book or it has no such move.  The
+     *  book's move is checked as a packed move first, since a damaged
+     *  book may hold values that denote no squares at all. */
+    private Move bookMove(Board board) {
+        OpeningBook book = _controller == null ? null : _controller.book();
+        if (book == null) {
+            return null;
+        }
+        int packed = book.bestMove(board.key());
+        if (packed == 0 || !board.isLegal(packed)) {
+            return null;
+        }
+        return Move.mv(packed);
+    }
+
+    /** The thread searching the position I expect after the opponent's
+     *  reply, or null if I am not pondering. */
+    private Thread _ponderer;
+    /** The key of the position _ponderer is searching. */
+    private long _ponderKey;
+    /** The opponent's reply (packed) that leads to that position. */
+    private int _ponderReply;
+    /** True iff the opponent has made the move I expected, so that
+     *  _ponderer has the time limits for my move. */
+    private boolean _ponderHit;
+    /** The move found by _ponderer, once it finishes. */
+    private volatile Move _ponderMove;
+
+    /** Return the first move of a win for the side to move in BOARD
+     *  proven by the endgame solver, or null if it proves none within the
+     *  number of positions given by the "solvenodes" option, by half way
+     *  from START (as from System.nanoTime) to _softDeadline, or before
+     *  _stop is set.  The solver watches both, so that when pondering,
+     *  a hit gives it the limits of my move and a miss stops it. */
+    private Move solvedMove(Board board, long start) {
+        int megabytes = option("hash");
+        if (_solver == null || megabytes != _solverMegabytes) {
+            _solver = new Solver(megabytes);
+            _solverMegabytes = megabytes;
+        }
+        int result = _solver.solve(board, option("solvenodes"),
+                                   () -> start + (_softDeadline - start) / 2,
+                                   () -> _stop);
+        if (result != Solver.WIN || _solver.line().isEmpty()) {
+            return null;
+        }
+        _completedDepth = _solver.line().size();
+        return _solver.line().get(0);
+    }
+
+    /** The endgame solver, which is kept from move to move along with
+     *  the positions it has solved. */
+    private Solver _solver;
+    /** The size of _solver's table in megabytes, as requested. */
+    private int _solverMegabytes;
 
     /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
+     *  based on characteristics of BOARD: every move fills an empty
+     *  square, so no line of play is longer than that.  The "depth"
+     *  option, if positive, limits it further. */
     private int maxDepth(Board board) {
-        return 1;
+        int depth = max(1, board.emptySquares());
+        int limit = option("depth");
+        return limit > 0 ? min(limit, depth) : depth;
     }
 
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
+    /** Return a heuristic value for BOARD: the difference in territory
+     *  (see Territory.score), unless the game is over.  Territory scores
+     *  are looked up in, and added to, the eval cache, if there is one. */
+    int staticScore(Board board) {
         Piece winner = board.winner();
         if (winner == BLACK) {
             return -WINNING_VALUE;
         } else if (winner == WHITE) {
             return WINNING_VALUE;
         }
-
-        int wCount = 0;
-        int bCount = 0;
-
-        Iterator<Move> whiteMoves = board.legalMoves(WHITE);
-        Iterator<Move> blackMoves = board.legalMoves(BLACK);
-
-        while (whiteMoves.hasNext()) {
-            whiteMoves.next();
-            wCount++;
+        EvalCache cache = _evalCache;
+        if (cache == null) {
+            return _territories.get().score(board);
         }
-
-        while (blackMoves.hasNext()) {
-            blackMoves.next();
-            bCount++;
+        long entry = cache.probe(board.key());
+        if (entry != 0) {
+            return EvalCache.score(entry);
         }
-
-        return wCount - bCount;
+        int score = _territories.get().score(board);
+        cache.store(board.key(), score);
+        return score;
     }
 }
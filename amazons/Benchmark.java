@@ -0,0 +1,246 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import static java.lang.Math.max;
+
+import static amazons.Piece.*;
+
+/** Micro-benchmarks of the move generator, Board, Move parsing, and AI,
+ *  on opening, midgame, and endgame positions (the Perft fixtures).
+ *  Evaluations are timed on the positions after each legal move (as at
+ *  the leaves of a search), since Board caches some per-position work.
+ *  For the same reason, the AI's eval cache is off, except in the
+ *  benchmarks marked "(cached)".
+ *  Each benchmark is warmed up and then timed over several rounds,
+ *  reporting mean operations per second and their spread, so that
+ *  numbers from before and after a change can be compared.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class Benchmark {
+
+    /** Run all benchmarks whose names contain one of ARGS (or all
+     *  benchmarks if ARGS is empty), printing results on the standard
+     *  output. */
+    public static void main(String... args) {
+        _filters = args;
+        for (int k = 0; k < POSITIONS.length; k += 1) {
+            benchmarkPosition(k, POSITIONS[k], Perft.fixture(k));
+        }
+        if (_sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /** Run the benchmarks for BOARD, whose position is called
+     *  POSITION and is POSITIONS[INDEX]. */
+    private static void benchmarkPosition(int index, String position,
+                                          Board board) {
+        MoveBuffer moves = new MoveBuffer();
+        int nMoves = board.legalMoves(board.turn(), moves);
+        String[] moveStrings = new String[nMoves];
+        for (int i = 0; i < nMoves; i += 1) {
+            moveStrings[i] = Move.mv(moves.get(i)).toString();
+        }
+        List<Square> amazons = new ArrayList<>();
+        for (Square sq : Utils.iterable(Square.iterator())) {
+            if (board.get(sq) == WHITE || board.get(sq) == BLACK) {
+                amazons.add(sq);
+            }
+        }
+        MoveBuffer scratch = new MoveBuffer();
+        AI ai = uncachedAI(), cachedAI = new AI();
+        cachedAI.findMove(board, 1);
+        Territory territory = new Territory();
+        long[] regionsLo = new long[Board.MAX_REGIONS],
+            regionsHi = new long[Board.MAX_REGIONS];
+        int[] next = new int[1];
+
+        run("Board.legalMoves(MoveBuffer)", position,
+            () -> board.legalMoves(board.turn(), scratch));
+        run("Board.legalMoves() iterator", position, () -> {
+            long n = 0;
+            for (Iterator<Move> iter = board.legalMoves(); iter.hasNext(); ) {
+                iter.next();
+                n += 1;
+            }
+            return n;
+        });
+        run("Board.reachableFrom", position, () -> {
+            long n = 0;
+            for (Square from : amazons) {
+                Iterator<Square> iter = board.reachableFrom(from, null);
+                while (iter.hasNext()) {
+                    iter.next();
+                    n += 1;
+                }
+            }
+            return n;
+        });
+        run("Board.makeMove+undo", position, () -> {
+            int move = moves.get(next[0]++ % nMoves);
+            board.makeMove(move);
+            board.undo();
+            return move;
+        });
+        run("Move.mv(String)", position,
+            () -> Move.mv(moveStrings[next[0]++ % nMoves]).packed());
+        run("AI.staticScore", position, () -> {
+            board.makeMove(moves.get(next[0]++ % nMoves));
+            int score = ai.staticScore(board);
+            board.undo();
+            return score;
+        });
+        run("AI.staticScore (cached)", position, () -> {
+            board.makeMove(moves.get(next[0]++ % nMoves));
+            int score = cachedAI.staticScore(board);
+            board.undo();
+            return score;
+        });
+        run("Territory.score", position, () -> {
+            board.makeMove(moves.get(next[0]++ % nMoves));
+            int score = territory.score(board);
+            board.undo();
+            return score;
+        });
+        run("Territory.findDistances", position, () -> {
+            board.makeMove(moves.get(next[0]++ % nMoves));
+            territory.findDistances(board);
+            board.undo();
+            return territory.queenDistance(WHITE, Square.sq(0));
+        });
+        run("Board.regions", position, () -> {
+            board.makeMove(moves.get(next[0]++ % nMoves));
+            int n = board.regions(regionsLo, regionsHi);
+            board.undo();
+            return n;
+        });
+        run("mobility evaluation", position, () -> {
+            board.makeMove(moves.get(next[0]++ % nMoves));
+            int score = board.mobility(WHITE) - board.mobility(BLACK);
+            board.undo();
+            return score;
+        });
+        run("AI.findMove depth 1", position,
+            () -> ai.findMove(board, 1).packed());
+        searchStatistics("AI.search statistics", position, board,
+                         SEARCH_DEPTHS[index]);
+    }
+
+    /** Report the nodes searched, cutoffs, cutoffs by the first move
+     *  tried, and eval cache hits by a fresh AI searching BOARD, whose
+     *  position is called POSITION, to depths 1 to MAXDEPTH in turn, if
+     *  NAME passes the filters from the command line.  These measure the
+     *  quality of move ordering. */
+    private static void searchStatistics(String name, String position,
+                                         Board board, int maxDepth) {
+        if (!selected(name)) {
+            return;
+        }
+        AI ai = new AI();
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            long start = System.nanoTime();
+            ai.findMove(board, depth);
+            double secs = (System.nanoTime() - start) * 1e-9;
+            EvalCache cache = ai.evalCache();
+            long hits = cache == null ? 0 : cache.hits(),
+                probes = cache == null ? 0 : hits + cache.misses();
+            System.out.printf("%-30s %-8s depth %d: %10d nodes %8.3f s,"
+                              + " %d cutoffs, %.1f%% by first move,"
+                              + " %.1f%% eval cache hits%n",
+                              name, position, depth, ai.nodes(), secs,
+                              ai.cutoffs(),
+                              100.0 * ai.firstMoveCutoffs()
+                              / max(1, ai.cutoffs()),
+                              100.0 * hits / max(1, probes));
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    /** Return an AI that has no eval cache, whatever the "evalcache"
+     *  option, so that repeating an operation on one position times the
+     *  evaluation rather than a cache hit. */
+    private static AI uncachedAI() {
+        return new AI() {
+            @Override
+            int option(String name) {
+                return name.equals("evalcache") ? 0 : super.option(name);
+            }
+        };
+    }
+
+    /** Return true iff NAME contains one of the filters from the command
+     *  line, or there are none. */
+    private static boolean selected(String name) {
+        if (_filters.length == 0) {
+            return true;
+        }
+        for (String filter : _filters) {
+            if (name.contains(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Benchmark OP, whose name is NAME, on the position called POSITION,
+     *  if NAME passes the filters from the command line.  Each call to OP
+     *  performs one operation, returning a value that depends on the
+     *  result (so that the work cannot be optimized away). */
+    private static void run(String name, String position, LongSupplier op) {
+        if (!selected(name)) {
+            return;
+        }
+        long warmupEnd = System.nanoTime() + WARMUP_MILLIS * 1_000_000L;
+        while (System.nanoTime() < warmupEnd) {
+            _sink += op.getAsLong();
+        }
+        double[] rates = new double[ROUNDS];
+        double mean = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            long start = System.nanoTime(),
+                end = start + ROUND_MILLIS * 1_000_000L;
+            long ops, now;
+            for (ops = 0, now = start; now < end;
+                 ops += 1, now = System.nanoTime()) {
+                _sink += op.getAsLong();
+            }
+            rates[r] = ops / ((now - start) * 1e-9);
+            mean += rates[r] / ROUNDS;
+        }
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean) / ROUNDS;
+        }
+        System.out.printf("%-30s %-8s %14.1f ops/s +- %5.1f%%%n",
+                          name, position, mean,
+                          100 * Math.sqrt(variance) / mean);
+    }
+
+    /** Names of the benchmark positions, which are Perft.fixture(0),
+     *  Perft.fixture(1), .... */
+    private static final String[] POSITIONS = {
+        "opening", "midgame", "endgame"
+    };
+
+    /** Deepest search reported by searchStatistics for each position
+     *  (the opening's branching factor makes depth 3 take too long). */
+    private static final int[] SEARCH_DEPTHS = { 2, 3, 3 };
+
+    /** Time to run each benchmark before measuring it. */
+    private static final long WARMUP_MILLIS = 1000;
+    /** Number of measured rounds per benchmark. */
+    private static final int ROUNDS = 5;
+    /** Length of each measured round. */
+    private static final long ROUND_MILLIS = 1000;
+
+    /** Substrings selecting the benchmarks to run (all, if empty). */
+    private static String[] _filters;
+    /** Accumulates results of benchmarked operations. */
+    private static long _sink;
+}
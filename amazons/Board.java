@@ -1,11 +1,12 @@
 package amazons;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Collections;
+import java.util.Random;
 
 import static amazons.Piece.*;
-import static amazons.Move.mv;
 import static amazons.Controller.*;
 
 
@@ -17,12 +18,43 @@ class Board implements Cloneable {
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
 
+    /** The maximum number of moves in a game.  Each move fills an empty
+     *  square, so a game from the initial position lasts at most 92 moves,
+     *  and no position set up with put can last more than SIZE * SIZE. */
+    static final int MAX_MOVES = SIZE * SIZE;
+
+    /** The maximum number of regions (see regions).  Any two squares in
+     *  a 2x2 block are adjacent, so each block in a tiling of the board
+     *  by such blocks meets at most one region. */
+    static final int MAX_REGIONS = ((SIZE + 1) / 2) * ((SIZE + 1) / 2);
+
     /** Board 1D. */
-    private Piece[] _board;
-    /** Arraylist of moves. */
-    private ArrayList<Move> moveList = new ArrayList<>();
+    private final Piece[] _board = new Piece[SIZE * SIZE];
+    /** Occupancy masks, indexed by Piece ordinal.  Each is a 128-bit
+     *  set of squares held as two words: _lo has bit K set for square K
+     *  (0 <= K < 64), and _hi has bit K - 64 set for the rest. */
+    private final long[] _lo = new long[Piece.values().length],
+        _hi = new long[Piece.values().length];
+    /** Undo stack: the packed moves made so far, in _history[0 .. _nMoves
+     *  - 1]. */
+    private final int[] _history = new int[MAX_MOVES];
+    /** _winners[K] encodes the cached value of _winner before move K:
+     *  the ordinal of a Piece, or NO_WINNER for null. */
+    private final byte[] _winners = new byte[MAX_MOVES];
     /** The number of moves taken thus far. */
     private int _nMoves;
+    /** Scratch space for mobility: the number of squares reachable from
+     *  each square (see countThrows). */
+    private final int[] _throws = new int[SIZE * SIZE];
+    /** True iff _throws is up to date. */
+    private boolean _throwsValid;
+    /** Scratch space for distances: the mask of the squares reachable
+     *  from each empty square in one queen move, plus the square itself
+     *  (low and high words; see findRuns). */
+    private final long[] _runsLo = new long[SIZE * SIZE],
+        _runsHi = new long[SIZE * SIZE];
+    /** True iff _runsLo and _runsHi are up to date. */
+    private boolean _runsValid;
 
 
     /** Initializes a game board with SIZE squares on a side in the
@@ -36,23 +68,32 @@ class Board implements Cloneable {
         copy(model);
     }
 
-    /** Copies MODEL into me. */
+    /** Copies MODEL into me, including its undo history.  Afterwards,
+     *  the two boards share no state. */
     void copy(Board model) {
-        this._board = model._board.clone();
+        System.arraycopy(model._board, 0, _board, 0, _board.length);
+        System.arraycopy(model._lo, 0, _lo, 0, _lo.length);
+        System.arraycopy(model._hi, 0, _hi, 0, _hi.length);
+        System.arraycopy(model._history, 0, _history, 0, model._nMoves);
+        System.arraycopy(model._winners, 0, _winners, 0, model._nMoves);
         this._turn = model._turn;
+        this._winner = model._winner;
+        this._key = model._key;
         this._nMoves = model._nMoves;
-        this.moveList = model.moveList;
+        this._throwsValid = this._runsValid = false;
     }
 
     /** Clears the board to the initial position. */
     void init() {
         _turn = WHITE;
-        _winner = null;
-        _board = new Piece[(int) Math.pow(SIZE, 2)];
-        _nMoves = -1;
-        for (int i = 0; i < ((int) Math.pow(SIZE, 2)); i++) {
-            _board[i] = Piece.EMPTY;
-        }
+        _winner = EMPTY;
+        _nMoves = 0;
+        Arrays.fill(_board, EMPTY);
+        Arrays.fill(_lo, 0);
+        Arrays.fill(_hi, 0);
+        _lo[EMPTY.ordinal()] = ALL_LO;
+        _hi[EMPTY.ordinal()] = ALL_HI;
+        _key = 0;
         put(WHITE, 3, 0);
         put(WHITE, 6, 0);
         put(BLACK, 3, 9);
@@ -69,6 +110,50 @@ class Board implements Cloneable {
         return _turn;
     }
 
+    /** Return a 64-bit Zobrist key for the current position (contents of
+     *  every square and side to move).  Equal positions have equal keys,
+     *  and distinct positions almost always have distinct ones.  The key
+     *  is maintained incrementally by put, makeMove and undo. */
+    long key() {
+        return _key;
+    }
+
+    /** Return the key the position would have after the legal packed
+     *  MOVE, without making it. */
+    long keyAfter(int move) {
+        long[] mover = ZOBRIST[_turn.ordinal()];
+        return _key ^ mover[Move.fromIndex(move)] ^ mover[Move.toIndex(move)]
+            ^ ZOBRIST[SPEAR.ordinal()][Move.spearIndex(move)]
+            ^ BLACK_TO_MOVE_KEY;
+    }
+
+    /** Return the key of the current position, computed from scratch.
+     *  Always equal to key() unless there is a bug in its incremental
+     *  maintenance. */
+    long computeKey() {
+        long key = _turn == BLACK ? BLACK_TO_MOVE_KEY : 0;
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            key ^= ZOBRIST[_board[k].ordinal()][k];
+        }
+        return key;
+    }
+
+    /** Turn on checking of key() against computeKey() after every move
+     *  and undo iff ON.  This is expensive, and intended for debugging. */
+    static void setKeyVerification(boolean on) {
+        _verifyKeys = on;
+    }
+
+    /** If key verification is on, check that key() is up to date,
+     *  throwing IllegalStateException if not. */
+    private void verifyKey() {
+        if (_verifyKeys && _key != computeKey()) {
+            throw new IllegalStateException(
+                String.format("position key %016x should be %016x",
+                              _key, computeKey()));
+        }
+    }
+
     /** Return the number of moves (that have not been undone) for this
      *  board. */
     int numMoves() {
@@ -76,15 +161,39 @@ class Board implements Cloneable {
     }
 
     /** Return the winner in the current position, or null if the game is
-     *  not yet finished. */
+     *  not yet finished.  The side to move has a move iff one of its
+     *  amazons has an empty neighbor (it can step there and throw back
+     *  to where it came from), so this needs no move generation, and the
+     *  result is cached until the next change to the board. */
     Piece winner() {
-        Iterator<Move> currentPlayerMoves = legalMoves();
-        if (!currentPlayerMoves.hasNext()) {
+        if (_winner == EMPTY) {
+            long emptyLo = _lo[EMPTY.ordinal()],
+                emptyHi = _hi[EMPTY.ordinal()];
             _winner = _turn.opponent();
-            return _winner;
-        } else {
-            return null;
+            for (long m = _lo[_turn.ordinal()]; m != 0; m &= m - 1) {
+                int k = Long.numberOfTrailingZeros(m);
+                if ((NEIGHBORS_LO[k] & emptyLo | NEIGHBORS_HI[k] & emptyHi)
+                    != 0) {
+                    _winner = null;
+                    return null;
+                }
+            }
+            for (long m = _hi[_turn.ordinal()]; m != 0; m &= m - 1) {
+                int k = 64 + Long.numberOfTrailingZeros(m);
+                if ((NEIGHBORS_LO[k] & emptyLo | NEIGHBORS_HI[k] & emptyHi)
+                    != 0) {
+                    _winner = null;
+                    return null;
+                }
+            }
         }
+        return _winner;
+    }
+
+    /** Return the number of empty squares. */
+    int emptySquares() {
+        return Long.bitCount(_lo[EMPTY.ordinal()])
+            + Long.bitCount(_hi[EMPTY.ordinal()]);
     }
 
     /** Return the contents the square at S. */
@@ -105,8 +214,19 @@ class Board implements Cloneable {
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        _board[s.index()] = p;
-        _winner = winner();
+        int k = s.index();
+        Piece old = _board[k];
+        if (k < 64) {
+            _lo[old.ordinal()] &= ~(1L << k);
+            _lo[p.ordinal()] |= 1L << k;
+        } else {
+            _hi[old.ordinal()] &= ~(1L << (k - 64));
+            _hi[p.ordinal()] |= 1L << (k - 64);
+        }
+        _board[k] = p;
+        _throwsValid = _runsValid = false;
+        _key ^= ZOBRIST[old.ordinal()][k] ^ ZOBRIST[p.ordinal()][k];
+        _winner = EMPTY;
     }
 
     /** Set square (COL, ROW) to P. */
@@ -128,18 +248,10 @@ class Board implements Cloneable {
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
         if (!from.isQueenMove(to)) {
             return false;
-        } else {
-            int rowD = Math.abs(from.row() - to.row());
-            int colD = Math.abs(from.col() - to.col());
-            for (int i = 1; i <= Math.max(colD, rowD); i++) {
-                Square tempS = from.queenMove(from.direction(to), i);
-                Piece temp = get(tempS);
-                if (!temp.toName().equals("EMPTY") && tempS != asEmpty) {
-                    return false;
-                }
-            }
-            return true;
         }
+        return reach(from.index(), from.direction(to),
+                     occupiedLo(asEmpty), occupiedHi(asEmpty))
+            > from.between(to).length;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
@@ -161,7 +273,7 @@ class Board implements Cloneable {
     /** Return true iff FROM-TO(SPEAR) is a legal move in the current
      *  position. */
     boolean isLegal(Square from, Square to, Square spear) {
-        return isLegal(from, to) && isLegal(to, spear) && get(from) == _turn;
+        return isLegal(from, to) && isUnblockedMove(to, spear, from);
     }
 
     /** Return true iff MOVE is a legal move in the current
@@ -170,41 +282,78 @@ class Board implements Cloneable {
         return isLegal(move.from(), move.to(), move.spear());
     }
 
+    /** Return true iff the packed MOVE (see Move.pack) is a legal move in
+     *  the current position.  MOVE need not denote squares on the board,
+     *  and no Move is created, so search threads may use this freely. */
+    boolean isLegal(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move),
+            spear = Move.spearIndex(move);
+        if (move < 0 || from >= SIZE * SIZE || to >= SIZE * SIZE
+            || spear >= SIZE * SIZE) {
+            return false;
+        }
+        return isLegal(Square.sq(from), Square.sq(to), Square.sq(spear));
+    }
+
 
     /** Move FROM-TO(SPEAR), assuming this is a legal move. */
     void makeMove(Square from, Square to, Square spear) {
-        put(get(from), to);
-        put(EMPTY, from);
-        put(SPEAR, spear);
-        moveList.add(mv(from, to, spear));
-        _turn = _turn.opponent();
-        _nMoves += 1;
+        makeMove(Move.pack(from.index(), to.index(), spear.index()));
     }
 
-    /** Track whether move been made. */
-    private boolean moveMade = false;
-    /** Move according to MOVE, assuming it is a legal move. */
+    /** Move according to MOVE, if it is a legal move. */
     void makeMove(Move move) {
         if (isLegal(move)) {
-            moveMade = true;
-            makeMove(move.from(), move.to(), move.spear());
+            makeMove(move.packed());
         }
     }
+
+    /** Make the packed MOVE (see Move.pack), assuming it is legal.  At
+     *  most MAX_MOVES moves may be made (and not undone) on a board, which
+     *  legal play never exceeds unless squares are emptied with put
+     *  between moves; throws IllegalStateException beyond that. */
+    void makeMove(int move) {
+        if (_nMoves == MAX_MOVES) {
+            throw new IllegalStateException(
+                String.format("more than %d moves on one board", MAX_MOVES));
+        }
+        _history[_nMoves] = move;
+        _winners[_nMoves] =
+            _winner == null ? NO_WINNER : (byte) _winner.ordinal();
+        _nMoves += 1;
+        Square from = Square.sq(Move.fromIndex(move));
+        put(get(from), Square.sq(Move.toIndex(move)));
+        put(EMPTY, from);
+        put(SPEAR, Square.sq(Move.spearIndex(move)));
+        _turn = _turn.opponent();
+        _key ^= BLACK_TO_MOVE_KEY;
+        _winner = EMPTY;
+        verifyKey();
+    }
+
     /** Undo one move.  Has no effect on the initial board. */
     void undo() {
-        if (winner() != null) {
-            _winner = null;
-        }
-        if (moveMade) {
-            Move lastMove = moveList.get(moveList.size() - 1);
-            moveList.remove(moveList.size() - 1);
-            put(get(lastMove.to()), lastMove.from());
-            put(EMPTY, lastMove.to());
-            put(EMPTY, lastMove.spear());
+        if (_nMoves > 0) {
+            _nMoves -= 1;
+            int move = _history[_nMoves];
+            Square to = Square.sq(Move.toIndex(move));
+            put(EMPTY, Square.sq(Move.spearIndex(move)));
+            put(get(to), Square.sq(Move.fromIndex(move)));
+            put(EMPTY, to);
             _turn = _turn.opponent();
+            _key ^= BLACK_TO_MOVE_KEY;
+            byte winner = _winners[_nMoves];
+            _winner = winner == NO_WINNER ? null : PIECES[winner];
+            verifyKey();
         }
     }
 
+    /** Return the packed move number K (0 <= K < numMoves()) made on
+     *  this board. */
+    int move(int k) {
+        return _history[k];
+    }
+
     /** Return an Iterator over the Squares that are reachable by an
      *  unblocked queen move from FROM. Does not pay attention to what
      *  piece (if any) is on FROM, nor to whether the game is finished.
@@ -227,6 +376,381 @@ class Board implements Cloneable {
         return new LegalMoveIterator(side);
     }
 
+    /** Return the number of empty squares that can be crossed in
+     *  direction DIR from the square with index FROM, stopping at the
+     *  board edge or at the first square in the occupancy mask
+     *  OCCLO/OCCHI. */
+    private static int reach(int from, int dir, long occLo, long occHi) {
+        int k = from * 8 + dir;
+        int blocker = blocker(dir, RAY_LO[k] & occLo, RAY_HI[k] & occHi);
+        if (blocker < 0) {
+            return RAY_LEN[k];
+        }
+        return (blocker - from) / DELTA[dir] - 1;
+    }
+
+    /** Return the index of the first square, moving in direction DIR,
+     *  in the mask BLOCKLO/BLOCKHI, which lies on a single ray in that
+     *  direction, or -1 if the mask is empty. */
+    private static int blocker(int dir, long blockLo, long blockHi) {
+        if (DELTA[dir] > 0) {
+            if (blockLo != 0) {
+                return Long.numberOfTrailingZeros(blockLo);
+            } else if (blockHi != 0) {
+                return 64 + Long.numberOfTrailingZeros(blockHi);
+            }
+        } else {
+            if (blockHi != 0) {
+                return 127 - Long.numberOfLeadingZeros(blockHi);
+            } else if (blockLo != 0) {
+                return 63 - Long.numberOfLeadingZeros(blockLo);
+            }
+        }
+        return -1;
+    }
+
+    /** Return the low word of the mask of occupied squares, treating
+     *  ASEMPTY (if non-null) as empty. */
+    private long occupiedLo(Square asEmpty) {
+        long occ = ~_lo[EMPTY.ordinal()] & ALL_LO;
+        if (asEmpty != null && asEmpty.index() < 64) {
+            occ &= ~(1L << asEmpty.index());
+        }
+        return occ;
+    }
+
+    /** Return the high word of the mask of occupied squares, treating
+     *  ASEMPTY (if non-null) as empty. */
+    private long occupiedHi(Square asEmpty) {
+        long occ = ~_hi[EMPTY.ordinal()] & ALL_HI;
+        if (asEmpty != null && asEmpty.index() >= 64) {
+            occ &= ~(1L << (asEmpty.index() - 64));
+        }
+        return occ;
+    }
+
+    /** Fill MOVES with all legal moves for SIDE on the current board
+     *  (regardless of whose turn it is), in packed form and in the same
+     *  order as legalMoves(SIDE), replacing its previous contents.
+     *  Return the number of moves. */
+    int legalMoves(Piece side, MoveBuffer moves) {
+        moves.clear();
+        long occLo = occupiedLo(null), occHi = occupiedHi(null);
+        long startsLo = _lo[side.ordinal()], startsHi = _hi[side.ordinal()];
+        while ((startsLo | startsHi) != 0) {
+            int from;
+            long throwLo = occLo, throwHi = occHi;
+            if (startsLo != 0) {
+                from = Long.numberOfTrailingZeros(startsLo);
+                startsLo &= startsLo - 1;
+                throwLo &= ~(1L << from);
+            } else {
+                from = 64 + Long.numberOfTrailingZeros(startsHi);
+                startsHi &= startsHi - 1;
+                throwHi &= ~(1L << (from - 64));
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                int n = reach(from, dir, occLo, occHi);
+                for (int to = from + DELTA[dir]; n > 0;
+                     n -= 1, to += DELTA[dir]) {
+                    addThrows(from, to, throwLo, throwHi, moves);
+                }
+            }
+        }
+        return moves.size();
+    }
+
+    /** Fill MOVES with the queen moves of SIDE's amazons on the current
+     *  board (regardless of whose turn it is), replacing its previous
+     *  contents, and return their number.  This is the first stage of
+     *  generating moves in stages: spear throws for each can then be
+     *  generated with spearThrows, just for those worth searching.  Each
+     *  is packed as the legal move that throws the spear back to the
+     *  square the amazon left, in the order of legalMoves(SIDE). */
+    int queenMoves(Piece side, MoveBuffer moves) {
+        moves.clear();
+        long occLo = occupiedLo(null), occHi = occupiedHi(null);
+        long startsLo = _lo[side.ordinal()], startsHi = _hi[side.ordinal()];
+        while ((startsLo | startsHi) != 0) {
+            int from;
+            if (startsLo != 0) {
+                from = Long.numberOfTrailingZeros(startsLo);
+                startsLo &= startsLo - 1;
+            } else {
+                from = 64 + Long.numberOfTrailingZeros(startsHi);
+                startsHi &= startsHi - 1;
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                int n = reach(from, dir, occLo, occHi);
+                for (int to = from + DELTA[dir]; n > 0;
+                     n -= 1, to += DELTA[dir]) {
+                    moves.add(Move.pack(from, to, from));
+                }
+            }
+        }
+        return moves.size();
+    }
+
+    /** Add to MOVES the legal moves that move the amazon on the square
+     *  with index FROM to the one with index TO, one for each spear
+     *  throw, in the order of legalMoves, and return their number.
+     *  Assumes that the queen move FROM-TO is legal. */
+    int spearThrows(int from, int to, MoveBuffer moves) {
+        int start = moves.size();
+        long throwLo = occupiedLo(null), throwHi = occupiedHi(null);
+        if (from < 64) {
+            throwLo &= ~(1L << from);
+        } else {
+            throwHi &= ~(1L << (from - 64));
+        }
+        addThrows(from, to, throwLo, throwHi, moves);
+        return moves.size() - start;
+    }
+
+    /** Add to MOVES the moves of the amazon on the square with index FROM
+     *  to the one with index TO with each spear throw from TO, where the
+     *  mask THROWLO/THROWHI holds the occupied squares once FROM is
+     *  vacated. */
+    private static void addThrows(int from, int to, long throwLo,
+                                  long throwHi, MoveBuffer moves) {
+        for (int dir = 0; dir < 8; dir += 1) {
+            int n = reach(to, dir, throwLo, throwHi);
+            for (int spear = to + DELTA[dir]; n > 0;
+                 n -= 1, spear += DELTA[dir]) {
+                moves.add(Move.pack(from, to, spear));
+            }
+        }
+    }
+
+    /** Return the number of legal moves for SIDE on the current board
+     *  (regardless of whose turn it is), without generating them.
+     *  If an amazon on FROM can move to TO in direction DIR, then the
+     *  number of spear throws from TO is the number of squares queen-
+     *  reachable from TO with FROM occupied (see countThrows), plus the
+     *  squares opened up behind TO by FROM being vacated: FROM itself and
+     *  the free squares beyond it in the direction opposite to DIR. */
+    int mobility(Piece side) {
+        countThrows();
+        int count = 0;
+        long occLo = occupiedLo(null), occHi = occupiedHi(null);
+        long startsLo = _lo[side.ordinal()], startsHi = _hi[side.ordinal()];
+        while ((startsLo | startsHi) != 0) {
+            int from;
+            if (startsLo != 0) {
+                from = Long.numberOfTrailingZeros(startsLo);
+                startsLo &= startsLo - 1;
+            } else {
+                from = 64 + Long.numberOfTrailingZeros(startsHi);
+                startsHi &= startsHi - 1;
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                int n = reach(from, dir, occLo, occHi);
+                if (n > 0) {
+                    count +=
+                        n * (1 + reach(from, (dir + 4) % 8, occLo, occHi));
+                    for (int to = from + DELTA[dir]; n > 0;
+                         n -= 1, to += DELTA[dir]) {
+                        count += _throws[to];
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Set _throws[S], for each empty square index S, to the number of
+     *  squares reachable from S by a queen move on the current board,
+     *  unless it is already up to date.  For each of the four lines
+     *  through S, this is one less than the length of the run of empty
+     *  squares containing S along that line, so each line is scanned
+     *  just once. */
+    private void countThrows() {
+        if (_throwsValid) {
+            return;
+        }
+        Arrays.fill(_throws, 0);
+        for (int[] line : LINES) {
+            int runStart = 0;
+            for (int i = 0; i <= line.length; i += 1) {
+                if (i == line.length || _board[line[i]] != EMPTY) {
+                    for (int j = runStart; j < i; j += 1) {
+                        _throws[line[j]] += i - runStart - 1;
+                    }
+                    runStart = i + 1;
+                }
+            }
+        }
+        _throwsValid = true;
+    }
+
+    /** Set DIST[S], for each square index S, to the number of queen moves
+     *  (if QUEEN) or king steps (otherwise) through empty squares that
+     *  one of SIDE's amazons needs to reach S on the current board, and
+     *  to Territory.UNREACHABLE for occupied squares other than SIDE's
+     *  amazons and for squares that none of them can reach.  Only
+     *  amazons in the mask MASKLO/MASKHI count.  This is a
+     *  breadth-first flood fill, one distance at a time: the squares at
+     *  distance D + 1 are those reached in one move from the squares at
+     *  distance D and not already reached.  After the first queen move,
+     *  every square of the frontier is empty, so its moves come from
+     *  the table made by findRuns. */
+    void distances(Piece side, boolean queen, byte[] dist,
+                   long maskLo, long maskHi) {
+        Arrays.fill(dist, 0, SIZE * SIZE, (byte) Territory.UNREACHABLE);
+        if (queen) {
+            findRuns();
+        }
+        long emptyLo = _lo[EMPTY.ordinal()], emptyHi = _hi[EMPTY.ordinal()];
+        long occLo = ~emptyLo & ALL_LO, occHi = ~emptyHi & ALL_HI;
+        long frontLo = _lo[side.ordinal()] & maskLo,
+            frontHi = _hi[side.ordinal()] & maskHi;
+        long newLo = emptyLo, newHi = emptyHi;
+        for (int d = 0; (frontLo | frontHi) != 0; d += 1) {
+            long nextLo = 0, nextHi = 0;
+            while ((frontLo | frontHi) != 0) {
+                int s;
+                if (frontLo != 0) {
+                    s = Long.numberOfTrailingZeros(frontLo);
+                    frontLo &= frontLo - 1;
+                } else {
+                    s = 64 + Long.numberOfTrailingZeros(frontHi);
+                    frontHi &= frontHi - 1;
+                }
+                dist[s] = (byte) d;
+                if (!queen) {
+                    nextLo |= NEIGHBORS_LO[s];
+                    nextHi |= NEIGHBORS_HI[s];
+                } else if (d > 0) {
+                    nextLo |= _runsLo[s];
+                    nextHi |= _runsHi[s];
+                } else {
+                    for (int dir = 0; dir < 8; dir += 1) {
+                        int k = s * 8 + dir;
+                        long rayLo = RAY_LO[k], rayHi = RAY_HI[k];
+                        int b = blocker(dir, rayLo & occLo, rayHi & occHi);
+                        if (b >= 0) {
+                            rayLo &= ~RAY_LO[b * 8 + dir];
+                            rayHi &= ~RAY_HI[b * 8 + dir];
+                        }
+                        nextLo |= rayLo;
+                        nextHi |= rayHi;
+                    }
+                }
+            }
+            frontLo = nextLo & newLo;
+            frontHi = nextHi & newHi;
+            newLo &= ~frontLo;
+            newHi &= ~frontHi;
+        }
+    }
+
+    /** Set _runsLo[S] and _runsHi[S], for each empty square index S, to
+     *  the mask of the squares in the runs of empty squares containing S
+     *  along the four lines through S, unless they are already up to
+     *  date.  As in countThrows, each line is scanned just once. */
+    private void findRuns() {
+        if (_runsValid) {
+            return;
+        }
+        Arrays.fill(_runsLo, 0);
+        Arrays.fill(_runsHi, 0);
+        for (int[] line : LINES) {
+            int runStart = 0;
+            long runLo = 0, runHi = 0;
+            for (int i = 0; i <= line.length; i += 1) {
+                if (i < line.length && _board[line[i]] == EMPTY) {
+                    if (line[i] < 64) {
+                        runLo |= 1L << line[i];
+                    } else {
+                        runHi |= 1L << (line[i] - 64);
+                    }
+                    continue;
+                }
+                for (int j = runStart; j < i; j += 1) {
+                    _runsLo[line[j]] |= runLo;
+                    _runsHi[line[j]] |= runHi;
+                }
+                runStart = i + 1;
+                runLo = runHi = 0;
+            }
+        }
+        _runsValid = true;
+    }
+
+    /** Set REGIONSLO[K] and REGIONSHI[K], for 0 <= K < N, to the masks of
+     *  the regions of the current board, and return N.  A region is a
+     *  set of non-spear squares connected by king steps, so that it holds
+     *  some empty squares and the amazons (of either side or both) that
+     *  can move within them.  No move changes any region but the one it
+     *  is made in, which it may split in two, since an amazon and its
+     *  spear stay within their region.  Regions are numbered in order of
+     *  their lowest square index.  Each array must have room for
+     *  MAX_REGIONS regions. */
+    int regions(long[] regionsLo, long[] regionsHi) {
+        long leftLo = ~_lo[SPEAR.ordinal()] & ALL_LO,
+            leftHi = ~_hi[SPEAR.ordinal()] & ALL_HI;
+        int n = 0;
+        while ((leftLo | leftHi) != 0) {
+            long frontLo = leftLo & -leftLo,
+                frontHi = frontLo == 0 ? leftHi & -leftHi : 0;
+            long regionLo = frontLo, regionHi = frontHi;
+            while ((frontLo | frontHi) != 0) {
+                long nextLo = 0, nextHi = 0;
+                for (; frontLo != 0; frontLo &= frontLo - 1) {
+                    int k = Long.numberOfTrailingZeros(frontLo);
+                    nextLo |= NEIGHBORS_LO[k];
+                    nextHi |= NEIGHBORS_HI[k];
+                }
+                for (; frontHi != 0; frontHi &= frontHi - 1) {
+                    int k = 64 + Long.numberOfTrailingZeros(frontHi);
+                    nextLo |= NEIGHBORS_LO[k];
+                    nextHi |= NEIGHBORS_HI[k];
+                }
+                frontLo = nextLo & leftLo & ~regionLo;
+                frontHi = nextHi & leftHi & ~regionHi;
+                regionLo |= frontLo;
+                regionHi |= frontHi;
+            }
+            leftLo &= ~regionLo;
+            leftHi &= ~regionHi;
+            regionsLo[n] = regionLo;
+            regionsHi[n] = regionHi;
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Return the number of P's on the squares in the mask MASKLO/MASKHI
+     *  (as from regions). */
+    int count(Piece p, long maskLo, long maskHi) {
+        return Long.bitCount(_lo[p.ordinal()] & maskLo)
+            + Long.bitCount(_hi[p.ordinal()] & maskHi);
+    }
+
+    /** Return a 64-bit key for the contents of the squares in the mask
+     *  MASKLO/MASKHI (as from regions): which squares they are, and which
+     *  of them hold White and Black amazons.  Equal regions, in this
+     *  position or any other, have equal keys, and distinct regions
+     *  almost always have distinct ones.  The side to move is not
+     *  included. */
+    long regionKey(long maskLo, long maskHi) {
+        long key = mix(maskLo);
+        key = mix(key ^ maskHi);
+        key = mix(key ^ (_lo[WHITE.ordinal()] & maskLo));
+        key = mix(key ^ (_hi[WHITE.ordinal()] & maskHi));
+        key = mix(key ^ (_lo[BLACK.ordinal()] & maskLo));
+        return mix(key ^ (_hi[BLACK.ordinal()] & maskHi));
+    }
+
+    /** Return a scrambled version of X, such that changing any bit of X
+     *  changes about half the bits of the result (the finalizer of
+     *  MurmurHash3). */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
     /** An iterator used by reachableFrom. */
     private class ReachableFromIterator implements Iterator<Square> {
 
@@ -234,45 +758,49 @@ class Board implements Cloneable {
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
             _from = from;
+            _occLo = occupiedLo(asEmpty);
+            _occHi = occupiedHi(asEmpty);
             _dir = -1;
-            _steps = 1;
-            _asEmpty = asEmpty;
+            _steps = 0;
+            _limit = 0;
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            return _dir < 8 && _from != null;
+            return _dir < 8;
         }
 
         @Override
         public Square next() {
-            Square nextM = _from.queenMove(_dir, _steps);
+            Square nextM = _from.ray(_dir)[_steps - 1];
             toNext();
             return nextM;
         }
+
         /** Advance _dir and _steps, so that the next valid Square is
          *  _steps steps in direction _dir from _from. */
         private void toNext() {
             _steps += 1;
-            while (!isUnblockedMove(_from,
-                    _from.queenMove(_dir, _steps), _asEmpty)
-                    && hasNext()) {
-                _steps = 1;
+            while (_steps > _limit && _dir < 8) {
                 _dir += 1;
+                _steps = 1;
+                if (_dir < 8) {
+                    _limit = reach(_from.index(), _dir, _occLo, _occHi);
+                }
             }
         }
 
-
-
         /** Starting square. */
         private Square _from;
         /** Current direction. */
         private int _dir;
         /** Current distance. */
         private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** Number of reachable squares in direction _dir. */
+        private int _limit;
+        /** Occupied squares, with the square treated as empty removed. */
+        private long _occLo, _occHi;
 
     }
 
@@ -281,70 +809,63 @@ class Board implements Cloneable {
 
         /** All legal moves for SIDE (WHITE or BLACK). */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
+            _startsLo = _lo[side.ordinal()];
+            _startsHi = _hi[side.ordinal()];
             _spearThrows = NO_SQUARES;
             _pieceMoves = NO_SQUARES;
-            _fromPiece = side;
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            return _startingSquares.hasNext();
+            return _spear != null;
         }
 
         @Override
         public Move next() {
-            Move res = Move.mv(_start, _nextSquare, spSquare);
+            Move res = Move.mv(_start, _nextSquare, _spear);
             toNext();
             return res;
         }
 
-
         /** Advance so that the next valid Move is
-         *  _start-_nextSquare(sp), where sp is the next value of
-         *  _spearThrows. */
+         *  _start-_nextSquare(_spear), or set _spear to null if there
+         *  are no more moves. */
         private void toNext() {
-            if (!_spearThrows.hasNext()) {
-                if (!_pieceMoves.hasNext()) {
-                    while (_startingSquares.hasNext()) {
-                        Square a = _startingSquares.next();
-                        if (get(a).equals(_fromPiece)) {
-                            _start = a;
-                            _pieceMoves = reachableFrom(_start, null);
-                            _nextSquare = _pieceMoves.next();
-                            if (_nextSquare == null) {
-                                continue;
-                            }
-                            _spearThrows = reachableFrom(_nextSquare, _start);
-                            spSquare = _spearThrows.next();
-                            break;
-                        }
+            while (!_spearThrows.hasNext()) {
+                while (!_pieceMoves.hasNext()) {
+                    if (_startsLo != 0) {
+                        _start =
+                            Square.sq(Long.numberOfTrailingZeros(_startsLo));
+                        _startsLo &= _startsLo - 1;
+                    } else if (_startsHi != 0) {
+                        _start = Square.sq(64
+                            + Long.numberOfTrailingZeros(_startsHi));
+                        _startsHi &= _startsHi - 1;
+                    } else {
+                        _spear = null;
+                        return;
                     }
-                } else {
-                    _nextSquare = _pieceMoves.next();
-                    _spearThrows = reachableFrom(_nextSquare, _start);
-                    spSquare = _spearThrows.next();
+                    _pieceMoves = reachableFrom(_start, null);
                 }
-            } else {
-                spSquare = _spearThrows.next();
+                _nextSquare = _pieceMoves.next();
+                _spearThrows = reachableFrom(_nextSquare, _start);
             }
+            _spear = _spearThrows.next();
         }
 
-        /** Color of side whose moves we are iterating. */
-        private Piece _fromPiece;
         /** Current starting square. */
         private Square _start;
-        /** Remaining starting squares to consider. */
-        private Iterator<Square> _startingSquares;
+        /** Remaining starting squares to consider, as a mask. */
+        private long _startsLo, _startsHi;
         /** Current piece's new position. */
         private Square _nextSquare;
         /** Remaining moves from _start to consider. */
         private Iterator<Square> _pieceMoves;
         /** Remaining spear throws from _piece to consider. */
         private Iterator<Square> _spearThrows;
-        /** Temp square holding sp for iterator.*/
-        private Square spSquare;
+        /** Spear square of the next move, or null if there is none. */
+        private Square _spear;
 
     }
 
@@ -373,8 +894,100 @@ class Board implements Cloneable {
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
 
+    /** ZOBRIST[P][S] is the random key contributed by Piece P (by ordinal)
+     *  on square index S.  Empty squares contribute 0.  The generator is
+     *  seeded with a constant so that keys are the same in every run (and
+     *  can be stored in files). */
+    private static final long[][] ZOBRIST =
+        new long[Piece.values().length][SIZE * SIZE];
+
+    /** Key contributed by BLACK being on move. */
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        Random keys = new Random(0x5a0b71a7L);
+        for (Piece p : Piece.values()) {
+            for (int k = 0; k < SIZE * SIZE; k += 1) {
+                ZOBRIST[p.ordinal()][k] = p == EMPTY ? 0 : keys.nextLong();
+            }
+        }
+        BLACK_TO_MOVE_KEY = keys.nextLong();
+    }
+
+    /** Encoding of a null _winner in _winners. */
+    private static final byte NO_WINNER = -1;
+
+    /** All Pieces, indexed by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
+
+    /** True iff the key is checked after every move and undo. */
+    private static boolean _verifyKeys;
+
+    /** Masks of all squares on the board (low and high words). */
+    private static final long ALL_LO = -1L,
+        ALL_HI = (1L << (SIZE * SIZE - 64)) - 1;
+
+    /** Change in square index for one step in each direction, as
+     *  numbered for Square.queenMove. */
+    private static final int[] DELTA = { SIZE, SIZE + 1, 1, 1 - SIZE,
+                                         -SIZE, -SIZE - 1, -1, SIZE - 1 };
+
+    /** RAY_LO[8 * S + DIR] and RAY_HI[8 * S + DIR] are the mask of the
+     *  squares reached from square index S in direction DIR, not
+     *  including S itself.  RAY_LEN[8 * S + DIR] is their number. */
+    private static final long[] RAY_LO = new long[SIZE * SIZE * 8],
+        RAY_HI = new long[SIZE * SIZE * 8];
+    /** Lengths of the rays in RAY_LO and RAY_HI. */
+    private static final int[] RAY_LEN = new int[SIZE * SIZE * 8];
+
+    /** The rows, columns and diagonals of the board, each given as the
+     *  indices of its squares in order. */
+    private static final int[][] LINES;
+
+    /** NEIGHBORS_LO[S] and NEIGHBORS_HI[S] are the mask of the (up to 8)
+     *  squares adjacent to square index S. */
+    private static final long[] NEIGHBORS_LO = new long[SIZE * SIZE],
+        NEIGHBORS_HI = new long[SIZE * SIZE];
+
+    static {
+        for (int s = 0; s < SIZE * SIZE; s += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                int k = s * 8 + dir;
+                for (Square t : Square.sq(s).ray(dir)) {
+                    if (t.index() < 64) {
+                        RAY_LO[k] |= 1L << t.index();
+                    } else {
+                        RAY_HI[k] |= 1L << (t.index() - 64);
+                    }
+                    if (RAY_LEN[k] == 0) {
+                        NEIGHBORS_LO[s] |= RAY_LO[k];
+                        NEIGHBORS_HI[s] |= RAY_HI[k];
+                    }
+                    RAY_LEN[k] += 1;
+                }
+            }
+        }
+        ArrayList<int[]> lines = new ArrayList<>();
+        for (int dir = 0; dir < 4; dir += 1) {
+            for (int s = 0; s < SIZE * SIZE; s += 1) {
+                if (Square.sq(s).queenMove(dir + 4, 1) == null) {
+                    Square[] ray = Square.sq(s).ray(dir);
+                    int[] line = new int[ray.length + 1];
+                    line[0] = s;
+                    for (int i = 0; i < ray.length; i += 1) {
+                        line[i + 1] = ray[i].index();
+                    }
+                    lines.add(line);
+                }
+            }
+        }
+        LINES = lines.toArray(new int[lines.size()][]);
+    }
+
     /** Piece whose turn it is (BLACK or WHITE). */
     private Piece _turn;
+    /** Zobrist key of the current position. */
+    private long _key;
     /** Cached value of winner on this board, or EMPTY if it has not been
      *  computed. */
     private Piece _winner;
@@ -0,0 +1,181 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ucb.util.CommandArgs;
+
+import static amazons.Piece.*;
+
+/** Creates or extends an OpeningBook from games the AI plays against
+ *  itself.  For the first few moves of each game, it usually plays the
+ *  AI's choice at a fixed search depth, but sometimes one of the few
+ *  moves with the best territory (see Territory) chosen at random, so
+ *  that the games vary.  It finishes each game quickly, at depth 1, and
+ *  records each of the opening moves in the book, with one more game
+ *  for its weight and the game's result for its score.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class BookBuilder {
+
+    /** Build or extend a book as directed by ARGS: --games=N games
+     *  (default 100) of which the first --plies=N moves (default 6) are
+     *  recorded, searched to --depth=N (default 2), with random choices
+     *  seeded by --seed=N, written to the book file named by the
+     *  remaining argument, which is first read if it exists. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--games={0,1} --plies={0,1} --depth={0,1}"
+                            + " --seed={0,1} --={1}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.BookBuilder [--games=N]"
+                               + " [--plies=N] [--depth=N] [--seed=N] BOOK");
+            System.exit(1);
+        }
+        int games = intOption(options, "--games", 100),
+            plies = intOption(options, "--plies", 6),
+            depth = intOption(options, "--depth", 2);
+        String name = options.getFirst("--");
+        BookBuilder builder =
+            new BookBuilder(intOption(options, "--seed", 0));
+        try {
+            if (Files.exists(Paths.get(name))) {
+                builder.add(OpeningBook.open(name));
+            }
+            for (int k = 1; k <= games; k += 1) {
+                builder.playGame(plies, depth);
+                System.out.printf("game %d: %d records%n", k,
+                                  builder.size());
+            }
+            builder.write(name);
+        } catch (IOException excp) {
+            System.err.printf("Could not build book: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the value of the integer option NAME in OPTIONS, or DFLT
+     *  if it is absent. */
+    private static int intOption(CommandArgs options, String name,
+                                 int dflt) {
+        return options.contains(name)
+            ? Integer.parseInt(options.getFirst(name)) : dflt;
+    }
+
+    /** A builder with no records, whose random choices come from a
+     *  generator seeded with SEED. */
+    BookBuilder(long seed) {
+        _random = new Random(seed);
+    }
+
+    /** Return the number of records I have. */
+    int size() {
+        int size = 0;
+        for (Map<Integer, int[]> moves : _records.values()) {
+            size += moves.size();
+        }
+        return size;
+    }
+
+    /** Add the records of BOOK to mine. */
+    void add(OpeningBook book) {
+        for (int k = 0; k < book.size(); k += 1) {
+            record(book.key(k), book.move(k), book.weight(k), book.score(k));
+        }
+    }
+
+    /** Add WEIGHT to the weight and SCORE to the score of packed MOVE in
+     *  the position with key KEY, recording it if it is new. */
+    void record(long key, int move, int weight, int score) {
+        int[] entry = _records.computeIfAbsent(key, k -> new TreeMap<>())
+            .computeIfAbsent(move, m -> new int[2]);
+        entry[0] += weight;
+        entry[1] += score;
+    }
+
+    /** Play one game, recording its first PLIES moves, which are (mostly)
+     *  chosen by searching to DEPTH. */
+    void playGame(int plies, int depth) {
+        Board board = new Board();
+        List<Long> keys = new ArrayList<>();
+        List<Integer> moves = new ArrayList<>();
+        while (board.winner() == null) {
+            int move;
+            if (keys.size() >= plies) {
+                move = _ai.findMove(board, 1).packed();
+            } else {
+                move = _random.nextInt(EXPLORATION) == 0 ? explore(board)
+                    : _ai.findMove(board, depth).packed();
+                keys.add(board.key());
+                moves.add(move);
+            }
+            board.makeMove(move);
+        }
+        for (int k = 0; k < keys.size(); k += 1) {
+            Piece mover = k % 2 == 0 ? WHITE : BLACK;
+            record(keys.get(k), moves.get(k), 1,
+                   board.winner() == mover ? 1 : -1);
+        }
+    }
+
+    /** Return a packed move chosen at random among the TOP_CHOICES moves
+     *  in BOARD after which the side to move has the most territory. */
+    private int explore(Board board) {
+        MoveBuffer moves = new MoveBuffer();
+        int n = board.legalMoves(board.turn(), moves);
+        int sense = board.turn() == WHITE ? 1 : -1;
+        for (int k = 0; k < n; k += 1) {
+            board.makeMove(moves.get(k));
+            moves.setScore(k, sense * _territory.score(board));
+            board.undo();
+        }
+        moves.sortByScore(0);
+        return moves.get(_random.nextInt(Math.min(n, TOP_CHOICES)));
+    }
+
+    /** Write my records to a book file named NAME, replacing any file
+     *  already there. */
+    void write(String name) throws IOException {
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(name)))) {
+            out.writeLong(OpeningBook.MAGIC);
+            for (Map.Entry<Long, TreeMap<Integer, int[]>> position
+                     : _records.entrySet()) {
+                for (Map.Entry<Integer, int[]> move
+                         : position.getValue().entrySet()) {
+                    out.writeLong(position.getKey());
+                    out.writeInt(move.getKey());
+                    out.writeInt(move.getValue()[0]);
+                    out.writeInt(move.getValue()[1]);
+                }
+            }
+        }
+    }
+
+    /** One in this many book moves is chosen at random by explore. */
+    private static final int EXPLORATION = 4;
+    /** Number of moves among which explore chooses. */
+    private static final int TOP_CHOICES = 8;
+
+    /** My records: for each position key, and each packed move in that
+     *  position, its weight and score, in the order of the book file. */
+    private final TreeMap<Long, TreeMap<Integer, int[]>> _records =
+        new TreeMap<>();
+    /** The player choosing moves. */
+    private final AI _ai = new AI();
+    /** Evaluator for explore. */
+    private final Territory _territory = new Territory();
+    /** Source of random choices. */
+    private final Random _random;
+}
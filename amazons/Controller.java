@@ -1,12 +1,15 @@
 package amazons;
 
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.function.Consumer;
 
+import static java.util.Map.entry;
 import static amazons.Utils.*;
 import static amazons.Piece.*;
 import static amazons.Square.sq;
@@ -42,17 +45,21 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        resetClocks();
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         while (_playing) {
             _view.update(_board);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
+                Piece side = _board.turn();
+                long start = System.currentTimeMillis();
+                if (side == WHITE) {
                     command = _white.myMove();
                 } else {
                     command = _black.myMove();
                 }
+                chargeTime(side, System.currentTimeMillis() - start);
             } else {
                 command = _nonPlayer.myMove();
                 if (command == null) {
@@ -79,6 +86,82 @@ final class Controller {
         return _board;
     }
 
+    /** Return the time, in milliseconds, left on the game clock of SIDE
+     *  (WHITE or BLACK).  This may be negative once SIDE has overrun its
+     *  time. */
+    long timeLeft(Piece side) {
+        return side == WHITE ? _whiteTime : _blackTime;
+    }
+
+    /** Return the time, in milliseconds, added to a side's clock after
+     *  each of its moves. */
+    long timeIncrement() {
+        return _increment;
+    }
+
+    /** Return the current value of the option NAME, which must be one
+     *  of the keys of DEFAULT_OPTIONS.  Options are set with the "set"
+     *  command. */
+    int option(String name) {
+        Integer value = _options.get(name);
+        return value == null ? defaultOption(name) : value;
+    }
+
+    /** Set the option NAME, which must be one of the keys of
+     *  DEFAULT_OPTIONS, to VALUE. */
+    void setOption(String name, int value) {
+        _options.put(name, value);
+    }
+
+    /** Return the opening book for automated players, or null if there
+     *  is none. */
+    OpeningBook book() {
+        return _book;
+    }
+
+    /** Have automated players consult BOOK (null for none) in the
+     *  opening. */
+    void setBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Return the tablebase of small regions for automated players, or
+     *  null if there is none. */
+    Tablebase tablebase() {
+        return _tablebase;
+    }
+
+    /** Have automated players consult TABLEBASE (null for none) to score
+     *  small regions.  Must be called before they first evaluate a
+     *  position. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the default value of the option NAME, which must be one of
+     *  the keys of DEFAULT_OPTIONS. */
+    static int defaultOption(String name) {
+        Integer value = DEFAULT_OPTIONS.get(name);
+        if (value == null) {
+            throw new IllegalStateException("no option " + name);
+        }
+        return value;
+    }
+
+    /** Set both sides' clocks to the full game time. */
+    private void resetClocks() {
+        _whiteTime = _blackTime = _gameTime;
+    }
+
+    /** Deduct ELAPSED milliseconds from the clock of SIDE. */
+    private void chargeTime(Piece side, long elapsed) {
+        if (side == WHITE) {
+            _whiteTime -= elapsed;
+        } else {
+            _blackTime -= elapsed;
+        }
+    }
+
     /** Return a random integer in the range 0 inclusive to U, exclusive.
      *  Available for use by AIs that use random selections in some cases.
      *  Once setRandomSeed is called with a particular value, this method
@@ -146,6 +229,9 @@ final class Controller {
         new Command("quit$", this::doQuit),
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
+        new Command("perft\\s+(divide\\s+)?(\\d+)$", this::doPerft),
+        new Command("time\\s+(\\d+)(?:\\s+(\\d+))?$", this::doTime),
+        new Command("set\\s+(\\w+)\\s+(\\d+)$", this::doSet),
         new Command("new$", this::doNew),
         new Command("(?i)auto\\s+(black|white)$", this::doAuto),
         new Command("(?i)manual\\s+(black|white)", this::doManual),
@@ -198,11 +284,16 @@ final class Controller {
                 Math.abs(Integer.parseInt(to1.substring(1)) - 1));
         Square spear = sq(Math.abs(spear1.charAt(0) - 'a'),
                 Math.abs(Integer.parseInt(spear1.substring(1)) - 1));
+        Piece mover = board().turn();
         board().makeMove(from, to, spear);
+        chargeTime(mover, -_increment);
         _winner = board().winner();
         if (_winner != null) {
             reportNote(_winner.toName() + " wins.");
         }
+        Move made = Move.mv(from, to, spear);
+        _white.moveMade(made);
+        _black.moveMade(made);
     }
     /** Assign as manual.
      * @param m command*/
@@ -233,6 +324,36 @@ final class Controller {
     private void doNew(Matcher unused) {
         _board.init();
         _winner = null;
+        resetClocks();
+    }
+
+    /** Command "time N" or "time N I", where N and I are the first and
+     *  second groups of MAT: give each side a game clock of N seconds,
+     *  plus I seconds (default 0) after each of its moves.  Resets both
+     *  clocks. */
+    private void doTime(Matcher mat) {
+        try {
+            _gameTime = Long.parseLong(mat.group(1)) * 1000;
+            _increment = mat.group(2) == null ? 0
+                : Long.parseLong(mat.group(2)) * 1000;
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        resetClocks();
+    }
+
+    /** Command "set NAME N", where NAME and N are the first and second
+     *  groups of MAT: set the option NAME (see DEFAULT_OPTIONS) to N. */
+    private void doSet(Matcher mat) {
+        String name = mat.group(1);
+        if (!DEFAULT_OPTIONS.containsKey(name)) {
+            throw error("unknown option: %s", name);
+        }
+        try {
+            setOption(name, Integer.parseInt(mat.group(2)));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
     }
 
     /** Command "quit". */
@@ -254,9 +375,102 @@ final class Controller {
         System.out.printf("===%n%s===%n", _board);
     }
 
+    /** Command "perft N" or "perft divide N", where N is the second group
+     *  of MAT: print the number of leaves of the tree of legal moves of
+     *  depth N from the current position, and the speed at which they
+     *  were counted.  With "divide", also print the count under each
+     *  legal move. */
+    private void doPerft(Matcher mat) {
+        int depth = Integer.parseInt(mat.group(2));
+        Board board = new Board(_board);
+        if (mat.group(1) != null) {
+            Perft.divide(board, depth, System.out);
+        } else {
+            long start = System.nanoTime();
+            long count = Perft.perft(board, depth);
+            double secs = (System.nanoTime() - start) * 1e-9;
+            System.out.printf("perft %d: %d nodes in %.3f s"
+                              + " (%.0f nodes/s)%n",
+                              depth, count, secs, count / secs);
+        }
+    }
+
     /** The board. */
     private Board _board = new Board();
 
+    /** Default game time for each side, in milliseconds. */
+    static final long DEFAULT_GAME_TIME = 30_000;
+
+    /** Game time for each side and increment per move, in
+     *  milliseconds. */
+    private long _gameTime = DEFAULT_GAME_TIME, _increment;
+
+    /** Time left on White's and Black's clocks, in milliseconds. */
+    private long _whiteTime = DEFAULT_GAME_TIME,
+        _blackTime = DEFAULT_GAME_TIME;
+
+    /** The options that may be set with the "set" command, and their
+     *  default values:
+     *     hash    Size of the AI's transposition table, in megabytes.
+     *     evalcache  Size of the AI's cache of static scores, in
+     *             megabytes, or 0 for none.
+     *     threads Number of threads with which the AI searches.
+     *     split   How the AI's threads share a search: 0 for each to
+     *             search the whole tree (see AI), 1 to split the root
+     *             moves among them, and 2 to split the first move's line
+     *             as well.  Splitting is reproducible.
+     *     depth   If positive, the depth to which the AI searches,
+     *             regardless of the clock.
+     *     iterations  If positive, the number of iterations of the
+     *             MCTSPlayer's search, regardless of the clock.
+     *     movetime  If positive (and iterations is not), the time in
+     *             milliseconds for each MCTSPlayer move, rather than a
+     *             share of its clock.
+     *     playout Number of random moves in each MCTSPlayer playout.
+     *     solve   The AI tries to solve positions exactly (see Solver)
+     *             when at most this many squares are empty.
+     *     solvenodes  The most positions the AI's solver may visit on
+     *             each move.
+     *     ponder  If positive, the AI searches on the opponent's time
+     *             (see AI.moveMade).
+     *     lmr     If positive, the AI searches all but this many of the
+     *             first moves at a node one level less deeply, unless
+     *             they look better than the best so far (late move
+     *             reductions).
+     *     topk    If positive, the AI searches only this many of the
+     *             moves at nodes two or more levels above the leaves,
+     *             taking the queen moves with the best static scores in
+     *             turn, and generating only their best spear throws.
+     *     spears  The number of spear throws searched for each queen
+     *             move where topk applies.
+     *     probcut If positive, the AI prunes a node when a shallow
+     *             search finds it better than needed by at least this
+     *             much territory (ProbCut).
+     *  The lmr, topk, spears and probcut options apply only when the AI
+     *  does not split its search (split 0).  Split searches stay exact
+     *  and reproducible.
+     */
+    static final Map<String, Integer> DEFAULT_OPTIONS = Map.ofEntries(
+        entry("hash", 16),
+        entry("evalcache", 4),
+        entry("threads", Runtime.getRuntime().availableProcessors()),
+        entry("split", 0),
+        entry("depth", 0),
+        entry("iterations", 0),
+        entry("movetime", 0),
+        entry("playout", 2),
+        entry("solve", 24),
+        entry("solvenodes", 2_000_000),
+        entry("ponder", 0),
+        entry("lmr", 8),
+        entry("topk", 32),
+        entry("spears", 4),
+        entry("probcut", 0)
+    );
+
+    /** Values of the options that have been set. */
+    private final Map<String, Integer> _options = new HashMap<>();
+
     /** The winning side of the current game. */
     private Piece _winner;
 
@@ -289,4 +503,9 @@ final class Controller {
     /** Reporter for messages and errors. */
     private Reporter _reporter;
 
+    /** The opening book, or null. */
+    private OpeningBook _book;
+    /** The tablebase of small regions, or null. */
+    private Tablebase _tablebase;
+
 }
@@ -0,0 +1,93 @@
+package amazons;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size, direct-mapped cache of static scores, indexed by
+ *  position key (Board.key), so that a position reached through
+ *  different move orders is evaluated only once.  Each position maps to
+ *  a single entry, and a new score simply replaces whatever was there.
+ *
+ *  Each entry is a pair of adjacent longs in one array: the score word,
+ *  and the key XORed with the score word, as in TranspositionTable.  A
+ *  reader that sees halves of two different writes sees a key mismatch,
+ *  and treats the entry as missing, so search threads may share a cache
+ *  without locking.  Counts of hits and misses are kept in LongAdders,
+ *  which threads may likewise update without contention.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class EvalCache {
+
+    /** Bytes per entry. */
+    private static final int ENTRY_BYTES = 16;
+    /** Set in the score word of every entry in use, so that it is never
+     *  0. */
+    private static final long IN_USE = 1L << 32;
+
+    /** A cache occupying at most MEGABYTES megabytes (and at least one
+     *  entry), with a power-of-two number of entries. */
+    EvalCache(int megabytes) {
+        long entries = Math.max(1, (long) megabytes * (1 << 20) / ENTRY_BYTES);
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 29));
+        _entries = new long[2 * size];
+        _mask = size - 1;
+    }
+
+    /** Return the number of entries in me. */
+    int size() {
+        return _entries.length / 2;
+    }
+
+    /** Remove all entries, and reset the hit and miss counts. */
+    void clear() {
+        java.util.Arrays.fill(_entries, 0);
+        _hits.reset();
+        _misses.reset();
+    }
+
+    /** Return the score word for the position with key KEY, or 0 if there
+     *  is none, counting a hit or a miss.  Decode it with score. */
+    long probe(long key) {
+        int k = 2 * ((int) key & _mask);
+        long data = _entries[k];
+        if ((_entries[k + 1] ^ data) == key && data != 0) {
+            _hits.increment();
+            return data;
+        }
+        _misses.increment();
+        return 0;
+    }
+
+    /** Record that the position with key KEY has static score SCORE. */
+    void store(long key, int score) {
+        long data = (score & 0xffffffffL) | IN_USE;
+        int k = 2 * ((int) key & _mask);
+        _entries[k] = data;
+        _entries[k + 1] = key ^ data;
+    }
+
+    /** Return the score recorded in DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the number of probes that found their position since I was
+     *  created or last cleared. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes that did not find their position since
+     *  I was created or last cleared. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** The entries, each a score word (the score in bits 0-31 and IN_USE)
+     *  followed by the key XORed with that word. */
+    private final long[] _entries;
+    /** Mask giving the entry number of a key. */
+    private final int _mask;
+    /** Numbers of probes that found and did not find their positions. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder();
+}
@@ -65,6 +65,112 @@ public class IteratorTests {
         assertEquals(2176, moves.size());
     }
 
+    /**
+     * Tests that legalMovesIterator does not lose the moves of the
+     * amazon on the highest-numbered square.
+     */
+    @Test
+    public void testLegalMovesLastSquare() {
+        Board b = new Board();
+        buildBoard(b, OGBOARD);
+        b.put(Piece.EMPTY, Square.sq(9, 3));
+        b.put(W, Square.sq(9, 9));
+        int lastSquareMoves = 0;
+        Iterator<Move> legalMoves = b.legalMoves();
+        while (legalMoves.hasNext()) {
+            Move m = legalMoves.next();
+            assertTrue(b.isLegal(m));
+            if (m.from() == Square.sq(9, 9)) {
+                lastSquareMoves += 1;
+            }
+        }
+        assertTrue(lastSquareMoves > 0);
+    }
+
+    /**
+     * Tests that the bulk generator produces the same moves, in the same
+     * order, as legalMovesIterator.
+     */
+    @Test
+    public void testLegalMovesBuffer() {
+        Board b = new Board();
+        buildBoard(b, REACHABLE);
+        MoveBuffer buffer = new MoveBuffer(16);
+        for (Piece side : new Piece[] { W, B }) {
+            int n = b.legalMoves(side, buffer);
+            Iterator<Move> legalMoves = b.legalMoves(side);
+            for (int i = 0; i < n; i += 1) {
+                assertTrue(legalMoves.hasNext());
+                assertSame(legalMoves.next(), Move.mv(buffer.get(i)));
+            }
+            assertFalse(legalMoves.hasNext());
+        }
+    }
+
+    /**
+     * Tests the move generator against the known perft counts of the
+     * fixture positions, to the depths that take well under a second.
+     */
+    @Test
+    public void testPerft() {
+        int[] depths = { 2, 2, 3, 5 };
+        for (int k = 0; k < Perft.FIXTURES.length; k += 1) {
+            Board b = Perft.fixture(k);
+            String before = b.toString();
+            for (int depth = 1; depth <= depths[k]; depth += 1) {
+                assertEquals(Perft.FIXTURE_NAMES[k] + " depth " + depth,
+                             Perft.GOLDEN[k][depth - 1],
+                             Perft.perft(b, depth));
+            }
+            assertEquals(before, b.toString());
+        }
+    }
+
+    /**
+     * Tests that mobility counts exactly the moves that the generator
+     * produces, for both sides, in each perft fixture.
+     */
+    @Test
+    public void testMobility() {
+        MoveBuffer buffer = new MoveBuffer();
+        for (int k = 0; k < Perft.FIXTURES.length; k += 1) {
+            Board b = Perft.fixture(k);
+            for (Piece side : new Piece[] { W, B }) {
+                assertEquals(b.legalMoves(side, buffer), b.mobility(side));
+            }
+        }
+        Board b = new Board();
+        buildBoard(b, REACHABLE);
+        assertEquals(b.legalMoves(W, buffer), b.mobility(W));
+        assertEquals(b.legalMoves(B, buffer), b.mobility(B));
+    }
+
+    /**
+     * Tests that expanding each queen move into its spear throws gives
+     * the moves of the bulk generator, in the same order.
+     */
+    @Test
+    public void testStagedMoves() {
+        MoveBuffer all = new MoveBuffer(), queens = new MoveBuffer(),
+            staged = new MoveBuffer();
+        for (int k = 0; k < Perft.FIXTURES.length; k += 1) {
+            Board b = Perft.fixture(k);
+            for (Piece side : new Piece[] { W, B }) {
+                int n = b.legalMoves(side, all);
+                staged.clear();
+                for (int i = 0; i < b.queenMoves(side, queens); i += 1) {
+                    int queenMove = queens.get(i);
+                    b.spearThrows(Move.fromIndex(queenMove),
+                                  Move.toIndex(queenMove), staged);
+                }
+                assertEquals(n, staged.size());
+                for (int i = 0; i < n; i += 1) {
+                    assertEquals(all.get(i), staged.get(i));
+                }
+            }
+        }
+    }
+
     @Test
     public void testIter() {
         Board b = new Board();
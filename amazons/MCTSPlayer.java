@@ -0,0 +1,398 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.*;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search (UCT), as an
+ *  alternative to AI's alpha-beta search.  Each iteration descends the
+ *  tree from the current position, choosing at each node the child
+ *  with the best upper confidence bound on its winning chances, until it
+ *  adds a new node.  It then estimates White's chances from there by a
+ *  short random playout and the sides' mobility, and adds them to the
+ *  statistics of the nodes passed.  The move played is the root's most
+ *  visited child.
+ *
+ *  Since a position has some 2,000 moves, a node only gets children as
+ *  it is visited more ("progressive widening"): at the root, in order of
+ *  the mobility after each move, and elsewhere by choosing the best of a
+ *  few random moves.  Several threads share the tree ("tree
+ *  parallelism"): each child chosen is counted as a loss until its
+ *  result is in ("virtual loss"), so that threads tend to explore
+ *  different lines.  The part of the tree below the opponent's reply is
+ *  kept for my next move.
+ *
+ *  The options "threads", "iterations", "movetime", and "playout" (see
+ *  Controller) control the search.
+ *  @author Mohammed Abu-Sharkh
+ */
+class MCTSPlayer extends Player {
+
+    /** Exploration constant in the UCT formula. */
+    private static final double EXPLORATION = 0.7;
+    /** A node whose children have N visits in all may have up to
+     *  WIDENING_BASE + N ** WIDENING_EXPONENT children. */
+    private static final double WIDENING_BASE = 2, WIDENING_EXPONENT = 0.5;
+    /** Number of random moves from which a new child of a node other than
+     *  the root is chosen. */
+    private static final int WIDENING_SAMPLES = 8;
+    /** Iterations between checks of the clock. */
+    private static final int CLOCK_CHECK_ITERATIONS = 64;
+    /** Effectively unlimited search time (nanoseconds). */
+    private static final long NO_TIME_LIMIT = Long.MAX_VALUE / 4;
+
+    /** A new MCTSPlayer with no piece or controller (intended to produce
+     *  a template). */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER. */
+    MCTSPlayer(Piece piece, Controller controller) {
+        super(piece, controller);
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(piece, controller);
+    }
+
+    @Override
+    String myMove() {
+        Board b = board();
+        long iterations = option("iterations"),
+            budget = option("movetime") * 1_000_000L;
+        if (iterations > 0) {
+            budget = NO_TIME_LIMIT;
+        } else {
+            iterations = Long.MAX_VALUE;
+            if (budget == 0) {
+                budget = timeBudget(b);
+            }
+        }
+        Move move = findMove(b, iterations, budget, option("threads"));
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Return a move for the side to move in BOARD, assuming there is a
+     *  move, found by at most ITERATIONS iterations in at most BUDGET
+     *  nanoseconds, using THREADS threads.  BOARD is unchanged on
+     *  return. */
+    Move findMove(Board board, long iterations, long budget, int threads) {
+        _deadline = System.nanoTime() + budget;
+        _iterationLimit = iterations;
+        _iterations.set(0);
+        _playoutPlies = option("playout");
+        Node root = root(board);
+        long seed = _controller == null ? 0 : _controller.randInt(1 << 30);
+
+        threads = max(1, threads);
+        Thread[] workers = new Thread[threads - 1];
+        for (int k = 1; k < threads; k += 1) {
+            Board copy = new Board(board);
+            SplittableRandom random = new SplittableRandom(seed + k);
+            workers[k - 1] = new Thread(() -> work(root, copy, random),
+                                        "tree search " + k);
+            workers[k - 1].setDaemon(true);
+            workers[k - 1].start();
+        }
+        work(root, new Board(board), new SplittableRandom(seed));
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Node best = null;
+        for (int k = 0; k < root._numChildren; k += 1) {
+            Node child = root._children[k];
+            if (best == null || child._visits > best._visits
+                || child._visits == best._visits
+                   && child._wins > best._wins) {
+                best = child;
+            }
+        }
+        return Move.mv(best == null ? root._order[0] : best._move);
+    }
+
+    /** Return the number of iterations performed by the last search. */
+    long iterations() {
+        return min(_iterations.get(), _iterationLimit);
+    }
+
+    /** Return the root for a search of BOARD.  This is the node for
+     *  BOARD's position in the tree of my last search if BOARD is that
+     *  search's position followed by two moves, and otherwise a new
+     *  node. */
+    private Node root(Board board) {
+        Node root = null;
+        int n = board.numMoves();
+        if (_root != null && n == _rootMoves + 2) {
+            Node mine = _root.child(board.move(n - 2));
+            root = mine == null ? null : mine.child(board.move(n - 1));
+            if (root != null && root._key != board.key()) {
+                root = null;
+            }
+        }
+        if (root == null) {
+            root = new Node(0, board.turn().opponent());
+            root._key = board.key();
+        }
+        if (root._order == null) {
+            MoveBuffer moves = new MoveBuffer();
+            Piece mover = board.turn();
+            int count = board.legalMoves(mover, moves);
+            for (int k = 0; k < count; k += 1) {
+                board.makeMove(moves.get(k));
+                moves.setScore(k, (int) (chances(board, mover) * 1e6));
+                board.undo();
+            }
+            moves.sortByScore(0);
+            root._order = new int[count];
+            for (int k = 0; k < count; k += 1) {
+                root._order[k] = moves.get(k);
+            }
+        }
+        _root = root;
+        _rootMoves = n;
+        return root;
+    }
+
+    /** Perform iterations on BOARD, whose position is that of ROOT, using
+     *  RANDOM for random choices, until the iteration or time budget is
+     *  used up.  BOARD is unchanged on return. */
+    private void work(Node root, Board board, SplittableRandom random) {
+        MoveBuffer moves = new MoveBuffer();
+        Node[] path = new Node[Board.MAX_MOVES + 1];
+        for (long n = 0; _iterations.getAndIncrement() < _iterationLimit;
+             n += 1) {
+            if (n % CLOCK_CHECK_ITERATIONS == 0
+                && System.nanoTime() > _deadline) {
+                break;
+            }
+            iterate(root, board, moves, path, random);
+        }
+    }
+
+    /** Perform one iteration on BOARD, whose position is that of ROOT,
+     *  using MOVES and PATH as scratch space and RANDOM for random
+     *  choices.  BOARD is unchanged on return. */
+    private void iterate(Node root, Board board, MoveBuffer moves,
+                         Node[] path, SplittableRandom random) {
+        int depth = 0;
+        Node node = root;
+        while (true) {
+            Node child;
+            boolean added;
+            synchronized (node) {
+                child = node.select(board, moves, random);
+                added = child != null && child._visits == 1;
+            }
+            if (child == null) {
+                break;
+            }
+            board.makeMove(child._move);
+            depth += 1;
+            path[depth] = child;
+            node = child;
+            if (added) {
+                child._key = board.key();
+                break;
+            }
+        }
+
+        double white = playout(board, moves, random);
+        for (int k = depth; k > 0; k -= 1) {
+            Node child = path[k], parent = k == 1 ? root : path[k - 1];
+            synchronized (parent) {
+                child._wins += child._mover == WHITE ? white : 1 - white;
+            }
+            board.undo();
+        }
+    }
+
+    /** Return White's estimated chances of winning from BOARD, found by
+     *  playing up to _playoutPlies random moves from it and estimating
+     *  the result from the sides' mobility, if the game does not end
+     *  first.  Uses MOVES as scratch space and RANDOM for random moves.
+     *  BOARD is unchanged on return. */
+    private double playout(Board board, MoveBuffer moves,
+                           SplittableRandom random) {
+        int made;
+        Piece winner = board.winner();
+        for (made = 0; winner == null && made < _playoutPlies; made += 1) {
+            int n = board.legalMoves(board.turn(), moves);
+            board.makeMove(moves.get(random.nextInt(n)));
+            winner = board.winner();
+        }
+        double white = winner == WHITE ? 1 : winner == BLACK ? 0
+            : chances(board, WHITE);
+        for (; made > 0; made -= 1) {
+            board.undo();
+        }
+        return white;
+    }
+
+    /** Return an estimate of the chances of SIDE winning in BOARD, from
+     *  the sides' mobility. */
+    static double chances(Board board, Piece side) {
+        Piece winner = board.winner();
+        if (winner != null) {
+            return winner == side ? 1 : 0;
+        }
+        double mine = board.mobility(side),
+            theirs = board.mobility(side.opponent());
+        return (mine + 1) / (mine + theirs + 2);
+    }
+
+    /** A node of the search tree, for the position reached by a move.
+     *  The statistics of a node (_visits and _wins) are guarded by its
+     *  parent's lock, and its children by its own lock, so that a thread
+     *  holding a node's lock may choose among its children and update
+     *  their statistics. */
+    private static final class Node {
+
+        /** A node reached by packed MOVE (0 for a root) by MOVER. */
+        Node(int move, Piece mover) {
+            _move = move;
+            _mover = mover;
+        }
+
+        /** Return my child reached by packed MOVE, or null if none. */
+        Node child(int move) {
+            for (int k = 0; k < _numChildren; k += 1) {
+                if (_children[k]._move == move) {
+                    return _children[k];
+                }
+            }
+            return null;
+        }
+
+        /** Choose a child of mine by which to continue an iteration, and
+         *  count a visit to it (as a loss until its result is added).
+         *  BOARD is at my position, and is unchanged on return.  Adds a new
+         *  child, with one visit, if I have too few for the visits they
+         *  have had (see WIDENING_BASE), and otherwise chooses the child
+         *  with the highest upper confidence bound.  Returns null if the
+         *  game is over.  Uses MOVES as scratch space and RANDOM for
+         *  random choices.  Must be called holding my lock. */
+        Node select(Board board, MoveBuffer moves, SplittableRandom random) {
+            if (_numMoves < 0) {
+                _numMoves = board.winner() != null ? 0
+                    : board.legalMoves(board.turn(), moves);
+            }
+            if (_numMoves == 0) {
+                return null;
+            }
+            Node child;
+            if (_numChildren < min(_numMoves,
+                                   WIDENING_BASE
+                                   + pow(_childVisits, WIDENING_EXPONENT))) {
+                child = new Node(widen(board, moves, random), board.turn());
+                if (_numChildren == _children.length) {
+                    _children = Arrays.copyOf(_children, 2 * _numChildren + 2);
+                }
+                _children[_numChildren] = child;
+                _numChildren += 1;
+            } else {
+                child = null;
+                double bestBound = -1, logVisits = log(_childVisits);
+                for (int k = 0; k < _numChildren; k += 1) {
+                    Node c = _children[k];
+                    double bound = c._wins / c._visits
+                        + EXPLORATION * sqrt(logVisits / c._visits);
+                    if (bound > bestBound) {
+                        bestBound = bound;
+                        child = c;
+                    }
+                }
+            }
+            child._visits += 1;
+            _childVisits += 1;
+            return child;
+        }
+
+        /** Return a packed move from BOARD, which is at my position,
+         *  that does not lead to one of my children: the next such move
+         *  in _order, if I have one, and otherwise the best for the side
+         *  to move of up to WIDENING_SAMPLES moves chosen using RANDOM.
+         *  Uses MOVES as scratch space.  BOARD is unchanged on return. */
+        private int widen(Board board, MoveBuffer moves,
+                          SplittableRandom random) {
+            if (_order != null) {
+                while (child(_order[_nextOrdered]) != null) {
+                    _nextOrdered += 1;
+                }
+                return _order[_nextOrdered];
+            }
+            int n = board.legalMoves(board.turn(), moves);
+            int best = 0;
+            double bestChances = -1;
+            for (int k = 0; k < WIDENING_SAMPLES; k += 1) {
+                int move = moves.get(random.nextInt(n));
+                if (child(move) == null) {
+                    board.makeMove(move);
+                    double chances = chances(board, board.turn().opponent());
+                    board.undo();
+                    if (chances > bestChances) {
+                        bestChances = chances;
+                        best = move;
+                    }
+                }
+            }
+            for (int k = 0; best == 0; k += 1) {
+                if (child(moves.get(k)) == null) {
+                    best = moves.get(k);
+                }
+            }
+            return best;
+        }
+
+        /** The packed move that reaches me (0 for a root). */
+        private final int _move;
+        /** The side that made _move. */
+        private final Piece _mover;
+        /** The key of my position. */
+        private long _key;
+        /** Number of iterations through me, including those whose results
+         *  are not yet in. */
+        private int _visits;
+        /** Sum of the results, for _mover, of iterations through me. */
+        private double _wins;
+        /** My children, in positions 0 .. _numChildren - 1. */
+        private Node[] _children = new Node[0];
+        /** Number of my children. */
+        private int _numChildren;
+        /** Total visits to my children. */
+        private int _childVisits;
+        /** Number of legal moves from my position, or -1 if not yet
+         *  counted. */
+        private int _numMoves = -1;
+        /** For a root, all legal moves in the order in which they become
+         *  children, best first by chances after the move; otherwise
+         *  null. */
+        private int[] _order;
+        /** Position in _order of the next move to consider as a child. */
+        private int _nextOrdered;
+    }
+
+    /** The root of my last search, or null. */
+    private Node _root;
+    /** The number of moves made on the board at _root. */
+    private int _rootMoves;
+    /** Time (System.nanoTime) at which the current search must stop. */
+    private volatile long _deadline;
+    /** Maximum number of iterations of the current search. */
+    private volatile long _iterationLimit;
+    /** Number of iterations of the current search started so far. */
+    private final AtomicLong _iterations = new AtomicLong();
+    /** Number of random moves in each playout. */
+    private volatile int _playoutPlies;
+}
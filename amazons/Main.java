@@ -15,14 +15,22 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display, the
+     *  option --mcts to have automated players use Monte Carlo tree
+     *  search (MCTSPlayer) rather than alpha-beta search (AI), and the
+     *  option --book=FILE to have the AI play from the opening book in
+     *  FILE (see BookBuilder), and the option --tablebase=FILE to have it
+     *  score small regions from the tablebase in FILE (see
+     *  TablebaseBuilder). */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --mcts --log={0,1} --book={0,1}"
+                            + " --tablebase={0,1} --={0,2}", args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--mcts] [--log=FILE] [--book=FILE]"
+                               + " [--tablebase=FILE] [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -83,6 +91,30 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        Player autoPlayer =
+            options.contains("--mcts") ? new MCTSPlayer() : new AI();
+        Controller control =
+            new Controller(view, log, reporter, manualPlayer, autoPlayer);
+        if (options.contains("--book")) {
+            try {
+                String book = options.getFirst("--book");
+                control.setBook(OpeningBook.open(book));
+            } catch (IOException excp) {
+                System.err.printf("Could not open book: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+        if (options.contains("--tablebase")) {
+            try {
+                String tablebase = options.getFirst("--tablebase");
+                control.setTablebase(Tablebase.open(tablebase));
+            } catch (IOException excp) {
+                System.err.printf("Could not open tablebase: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+        return control;
     }
 }
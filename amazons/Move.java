@@ -10,6 +10,12 @@ import static amazons.Square.SQ;
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  Inside the move generator and search, moves are instead represented
+ *  as ints (see pack), and Move objects are only created when a move
+ *  must be parsed or reported.  Background threads (such as the AI's
+ *  pondering thread) report moves too, so the factory methods that
+ *  take squares or packed moves may be called from any thread.
  *  @author P. N. Hilfinger
  */
 final class Move {
@@ -37,13 +43,54 @@ final class Move {
         return _spear;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
-    static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+    /** Return my packed representation (see pack). */
+    int packed() {
+        return _packed;
+    }
+
+    /** Return the move FROM-TO(SPEAR), where these are square indices,
+     *  packed into an int: FROM in bits 0-6, TO in bits 7-13 and SPEAR
+     *  in bits 14-20. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << 7) | (spear << 14);
+    }
+
+    /** Return the index of the square moved from in packed MOVE. */
+    static int fromIndex(int move) {
+        return move & 0x7f;
+    }
+
+    /** Return the index of the square moved to in packed MOVE. */
+    static int toIndex(int move) {
+        return (move >> 7) & 0x7f;
+    }
+
+    /** Return the index of the spear's destination in packed MOVE. */
+    static int spearIndex(int move) {
+        return move >> 14;
+    }
+
+    /** Return the unique Move FROM-TO(SPEAR).  Synchronized, so that two
+     *  threads never create two Moves for the same move. */
+    static synchronized Move mv(Square from, Square to, Square spear) {
+        Move[][] fromMoves = MOVES[from.index()];
+        if (fromMoves == null) {
+            fromMoves = MOVES[from.index()] = new Move[MOVES.length][];
+        }
+        Move[] toMoves = fromMoves[to.index()];
+        if (toMoves == null) {
+            toMoves = fromMoves[to.index()] = new Move[MOVES.length];
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        if (toMoves[spear.index()] == null) {
+            toMoves[spear.index()] = new Move(from, to, spear);
+        }
+        return toMoves[spear.index()];
+    }
+
+    /** Return the unique Move whose packed representation is MOVE. */
+    static Move mv(int move) {
+        return mv(sq(fromIndex(move)), sq(toIndex(move)),
+                  sq(spearIndex(move)));
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
@@ -78,16 +125,22 @@ final class Move {
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
+        _packed = pack(from.index(), to.index(), spear.index());
         _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** The cache of all Moves created, indexed by from, to, and spear
+     *  square.  The inner arrays are allocated only as needed, so that
+     *  only from-to pairs that have actually been used take space. */
+    private static final Move[][][] MOVES =
+        new Move[Board.SIZE * Board.SIZE][][];
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
+    /** My packed representation. */
+    private final int _packed;
     /** The printed form of a Move. */
-    private String _str;
+    private final String _str;
     /**  A utility Matcher for moves, using MOVE_PATTERN. */
     private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
@@ -0,0 +1,98 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A reusable list of moves in packed form (see Move.pack), filled in
+ *  bulk by Board.legalMoves.  Clearing a MoveBuffer keeps its storage,
+ *  so a search can allocate one per ply and generate moves without
+ *  creating any objects.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class MoveBuffer {
+
+    /** Initial capacity of a MoveBuffer.  Enough for any position with
+     *  four amazons per side (at most 35 destinations and 35 spear throws
+     *  per amazon), so that the buffer normally never grows. */
+    static final int DEFAULT_CAPACITY = 4 * 35 * 35;
+
+    /** An empty MoveBuffer with the default capacity. */
+    MoveBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** An empty MoveBuffer with room for CAPACITY moves. */
+    MoveBuffer(int capacity) {
+        _moves = new int[capacity];
+    }
+
+    /** Return the number of moves in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the packed move at position K. */
+    int get(int k) {
+        return _moves[k];
+    }
+
+    /** Append packed MOVE, growing my storage if needed. */
+    void add(int move) {
+        if (_size == _moves.length) {
+            _moves = Arrays.copyOf(_moves, 2 * _moves.length);
+        }
+        _moves[_size] = move;
+        _size += 1;
+    }
+
+    /** If packed MOVE is in me, exchange it with the move at position 0,
+     *  so that it comes first, and return true.  Otherwise return
+     *  false. */
+    boolean moveToFront(int move) {
+        return moveTo(move, 0);
+    }
+
+    /** If packed MOVE is in me at position K or later, exchange it with
+     *  the move at position K and return true.  Otherwise return
+     *  false. */
+    boolean moveTo(int move, int k) {
+        for (int j = k; j < _size; j += 1) {
+            if (_moves[j] == move) {
+                _moves[j] = _moves[k];
+                _moves[k] = move;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Set the ordering score of the move at position K to SCORE (see
+     *  sortByScore). */
+    void setScore(int k, int score) {
+        if (_keys.length < _moves.length) {
+            _keys = new long[_moves.length];
+        }
+        _keys[k] = ((long) score << 32) | (_moves[k] & 0xffffffffL);
+    }
+
+    /** Sort the moves at positions START and later into decreasing order
+     *  of the scores last set for them with setScore. */
+    void sortByScore(int start) {
+        Arrays.sort(_keys, start, _size);
+        for (int j = start, k = _size - 1; k >= start; j += 1, k -= 1) {
+            _moves[j] = (int) _keys[k];
+        }
+    }
+
+    /** Remove all moves, keeping my storage. */
+    void clear() {
+        _size = 0;
+    }
+
+    /** The packed moves, in positions 0 .. _size - 1. */
+    private int[] _moves;
+    /** Sort keys for sortByScore: each score in the upper half of a
+     *  word, and its move in the lower half. */
+    private long[] _keys = new long[0];
+    /** The number of moves in me. */
+    private int _size;
+}
@@ -0,0 +1,118 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** An opening book: a file of moves recorded for positions, read through
+ *  a memory mapping, so that it occupies almost no heap however large it
+ *  is, and lookups allocate nothing.
+ *
+ *  The file starts with the 8 bytes of MAGIC, followed by records of
+ *  RECORD_BYTES bytes each: a position key (Board.key), a packed move
+ *  for that position, the move's weight (the number of times it was
+ *  played), and its score (wins minus losses for the side that played
+ *  it), all big-endian.  The records are sorted by key and then by move,
+ *  and no two have the same key and move.  BookBuilder writes such
+ *  files.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class OpeningBook {
+
+    /** The first bytes of a book file. */
+    static final long MAGIC = 0x414d5a424f4f4b31L;
+    /** The size of each record in bytes. */
+    static final int RECORD_BYTES = 20;
+    /** The size of the file header in bytes. */
+    static final int HEADER_BYTES = 8;
+
+    /** Return the book in the file named NAME.  Throws an
+     *  IOException if the file cannot be read or is not a book. */
+    static OpeningBook open(String name) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(name),
+                                                 StandardOpenOption.READ)) {
+            long size = file.size();
+            if (size < HEADER_BYTES
+                || (size - HEADER_BYTES) % RECORD_BYTES != 0
+                || size > Integer.MAX_VALUE) {
+                throw new IOException("not an opening book: " + name);
+            }
+            MappedByteBuffer data =
+                file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (data.getLong(0) != MAGIC) {
+                throw new IOException("not an opening book: " + name);
+            }
+            return new OpeningBook(data);
+        }
+    }
+
+    /** A book whose file contents are DATA. */
+    private OpeningBook(MappedByteBuffer data) {
+        _data = data;
+        _size = (data.capacity() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    /** Return the number of records in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the position key of record K. */
+    long key(int k) {
+        return _data.getLong(HEADER_BYTES + k * RECORD_BYTES);
+    }
+
+    /** Return the packed move of record K. */
+    int move(int k) {
+        return _data.getInt(HEADER_BYTES + k * RECORD_BYTES + 8);
+    }
+
+    /** Return the weight of record K. */
+    int weight(int k) {
+        return _data.getInt(HEADER_BYTES + k * RECORD_BYTES + 12);
+    }
+
+    /** Return the score of record K. */
+    int score(int k) {
+        return _data.getInt(HEADER_BYTES + k * RECORD_BYTES + 16);
+    }
+
+    /** Return the index of the first record for the position with key
+     *  KEY, or -1 if there is none, by binary search. */
+    int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < _size && key(lo) == key ? lo : -1;
+    }
+
+    /** Return the best packed move recorded for the position with key
+     *  KEY, or 0 if there is none: the one with the highest score, or
+     *  of those, the highest weight. */
+    int bestMove(long key) {
+        int best = find(key);
+        if (best < 0) {
+            return 0;
+        }
+        for (int k = best + 1; k < _size && key(k) == key; k += 1) {
+            if (score(k) > score(best)
+                || score(k) == score(best) && weight(k) > weight(best)) {
+                best = k;
+            }
+        }
+        return move(best);
+    }
+
+    /** The contents of my file. */
+    private final MappedByteBuffer _data;
+    /** The number of records in _data. */
+    private final int _size;
+}
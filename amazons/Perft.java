@@ -0,0 +1,166 @@
+package amazons;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import ucb.util.CommandArgs;
+
+/** Perft ("performance test") counts: the number of leaves of the tree of
+ *  legal moves to a given depth.  Comparing these with known values
+ *  checks a move generator, and timing them measures its speed.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class Perft {
+
+    /** Check the perft counts of all fixture positions against GOLDEN and
+     *  report their speed.  ARGS may contain --divide, to print the count
+     *  under each root move as well, and a maximum depth (by default, all
+     *  depths in GOLDEN).  Exits with code 1 if any count is wrong. */
+    public static void main(String... args) {
+        CommandArgs options = new CommandArgs("--divide --={0,1}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.Perft [--divide]"
+                               + " [DEPTH]");
+            System.exit(1);
+        }
+        List<String> rest = options.get("--");
+        int maxDepth = rest.isEmpty() ? Integer.MAX_VALUE
+            : Integer.parseInt(rest.get(0));
+        boolean divide = options.contains("--divide");
+
+        boolean ok = true;
+        for (int k = 0; k < FIXTURES.length; k += 1) {
+            for (int depth = 1;
+                 depth <= Math.min(maxDepth, GOLDEN[k].length); depth += 1) {
+                Board board = fixture(k);
+                long start = System.nanoTime();
+                long count =
+                    divide ? divide(board, depth, System.out)
+                    : perft(board, depth);
+                double secs = (System.nanoTime() - start) * 1e-9;
+                boolean right = count == GOLDEN[k][depth - 1];
+                ok &= right;
+                System.out.printf("%-8s depth %d: %12d %s %8.3f s"
+                                  + " %12.0f nodes/s%n",
+                                  FIXTURE_NAMES[k], depth, count,
+                                  right ? "ok      "
+                                  : "expected " + GOLDEN[k][depth - 1],
+                                  secs, count / secs);
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /** Return the number of leaves of the tree of legal moves of depth
+     *  DEPTH from BOARD.  Lines that end the game before DEPTH moves
+     *  contribute nothing.  BOARD is unchanged on return. */
+    static long perft(Board board, int depth) {
+        return perft(board, depth, new MoveBuffer[depth + 1]);
+    }
+
+    /** As for perft(BOARD, DEPTH), using BUFFERS[D] (allocated as needed)
+     *  to hold the moves at depth D. */
+    private static long perft(Board board, int depth, MoveBuffer[] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (buffers[depth] == null) {
+            buffers[depth] = new MoveBuffer();
+        }
+        MoveBuffer moves = buffers[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        if (depth == 1) {
+            return n;
+        }
+        long count = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves.get(i));
+            count += perft(board, depth - 1, buffers);
+            board.undo();
+        }
+        return count;
+    }
+
+    /** Print the perft count of depth DEPTH - 1 under each legal move
+     *  from BOARD on OUT, followed by the total and the speed, and return
+     *  the total.  BOARD is unchanged on return. */
+    static long divide(Board board, int depth, PrintStream out) {
+        long start = System.nanoTime();
+        MoveBuffer moves = new MoveBuffer();
+        MoveBuffer[] buffers = new MoveBuffer[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves.get(i));
+            long count = perft(board, depth - 1, buffers);
+            board.undo();
+            out.printf("%s: %d%n", Move.mv(moves.get(i)), count);
+            total += count;
+        }
+        double secs = (System.nanoTime() - start) * 1e-9;
+        out.printf("%d moves, %d nodes in %.3f s (%.0f nodes/s)%n",
+                   n, total, secs, total / secs);
+        return total;
+    }
+
+    /** Return a new Board set to fixture position K: the position
+     *  reached from the initial position by the moves in FIXTURES[K]. */
+    static Board fixture(int k) {
+        Board board = new Board();
+        if (!FIXTURES[k].isEmpty()) {
+            for (String move : FIXTURES[k].split("\\s+")) {
+                board.makeMove(Move.mv(move));
+            }
+        }
+        return board;
+    }
+
+    /** Names of the fixture positions. */
+    static final String[] FIXTURE_NAMES = {
+        "start", "midgame", "endgame", "late"
+    };
+
+    /** The fixture positions, each given as the moves leading to it from
+     *  the initial position. */
+    static final String[] FIXTURES = {
+        "",
+
+        "a4-e4(b7) a7-a10(a5) e4-g6(e8) j7-e2(j7) d1-d9(i9) e2-e3(b3) "
+        + "g1-g3(c7) d10-i5(g5) g6-i8(f5) e3-d2(d7) j4-h2(h1) d2-d6(a6) "
+        + "g3-h3(c3) d6-e6(f6) h2-e5(b5) i5-g7(e9) i8-h8(i8) e6-e7(b10) "
+        + "h3-g3(d3) g10-f9(g10)",
+
+        "a4-c4(f7) a7-e3(e7) c4-a4(d7) e3-b3(b2) a4-e4(g2) d10-h6(e3) "
+        + "e4-i8(i6) j7-h7(h10) i8-h8(g8) g10-c10(a8) j4-h2(h4) b3-c3(b4) "
+        + "d1-h5(a5) c10-a10(c10) g1-d1(d3) h7-g6(a6) d1-e2(e1) h6-f8(e8) "
+        + "h2-d6(d5) g6-g5(h6) e2-f2(f6) c3-c1(c6) h5-d1(e2) g5-f5(h3) "
+        + "h8-j8(j1) f8-d10(g10) j8-j2(j4) f5-j9(b9) d6-i1(c7) j9-j6(j9) "
+        + "j2-h2(i2) d10-f10(e9) h2-f4(f3) a10-b10(a9) f4-d4(c5) "
+        + "f10-i7(j8) f2-g1(f1) i7-i8(h8) i1-d6(i1) i8-h7(g7) d6-g3(g6) "
+        + "c1-c3(c2) g3-e5(g3) j6-j5(i4) d4-g4(c4) j5-h5(g5) g1-i3(g1) "
+        + "h7-i7(i10) e5-d4(f4) c3-a3(c3)",
+
+        "d1-c1(c4) d10-d5(c6) g1-b6(d8) g10-g5(f6) j4-h6(h5) j7-c7(i7) "
+        + "b6-b9(i9) a7-a10(a5) a4-b3(a4) a10-d10(f8) b3-a3(a1) g5-e3(c3) "
+        + "a3-d6(h2) e3-e10(e2) b9-h3(h4) c7-b6(b5) d6-f4(e4) d10-d9(a9) "
+        + "h3-e6(g8) d5-d3(h3) e6-e7(g7) e10-j10(g10) c1-c2(d2) d3-g3(g6) "
+        + "f4-f2(g2) j10-i10(h10) c2-d1(c2) d9-c8(a8) e7-e5(d6) c8-g4(a10) "
+        + "e5-e9(b9) i10-h9(g9) f2-g1(h1) g4-f4(g4) e9-d10(f10) f4-e5(f4) "
+        + "h6-j6(j4) e5-c5(g5) d10-e10(f9) b6-b7(d9) j6-j9(j7) b7-e7(e9) "
+        + "e10-c10(b10) g3-e3(f3) j9-h7(h8) e7-a7(f7) h7-h6(h7) a7-c9(d10) "
+        + "d1-f1(f2) c9-b8(c8) f1-c1(f1) c5-e5(e8) h6-i5(i6) e3-d4(e3) "
+        + "c1-d1(b1) b8-c7(a7) i5-i4(i1) c7-e7(c7) i4-j3(j2) h9-i8(j8) "
+        + "j3-i3(i4) e7-e6(d5) d1-c1(b2) e5-f5(e5) c1-e1(d1) i8-h9(i10) "
+        + "i3-i2(i3) d4-d3(d4) c10-c9(b8) e6-d7(e6)",
+    };
+
+    /** GOLDEN[K][D - 1] is the perft count of depth D for FIXTURES[K],
+     *  as computed with Board's LegalMoveIterator. */
+    static final long[][] GOLDEN = {
+        { 2176L, 4307152L },
+        { 678L, 260177L, 159658326L },
+        { 38L, 2329L, 73190L, 4108753L },
+        { 3L, 9L, 12L, 28L, 0L },
+    };
+
+}
@@ -1,5 +1,8 @@
 package amazons;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
 import static amazons.Utils.*;
 
 /** A generic Amazons Player.
@@ -36,6 +39,54 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Note that MOVE, by either side, has just been made on board().
+     *  My controller calls this after every move, and it should return
+     *  promptly.  By default, it does nothing. */
+    void moveMade(Move move) {
+    }
+
+    /** Return the time, in nanoseconds, to aim to spend choosing a move
+     *  in BOARD: an equal share of my remaining clock time for each of the
+     *  moves I can expect still to make, plus the clock increment. */
+    long timeBudget(Board board) {
+        int movesToGo = max(MIN_MOVES_TO_GO,
+                            board.emptySquares() / EMPTY_SQUARES_PER_MOVE);
+        long budget = timeLeft() / movesToGo
+            + _controller.timeIncrement() * 1_000_000L;
+        return max(MIN_BUDGET, min(budget, timeLeft() / 2));
+    }
+
+    /** Return the time, in nanoseconds, after which I must stop choosing
+     *  a move whose time budget is BUDGET (see timeBudget). */
+    long hardLimit(long budget) {
+        return min(HARD_LIMIT_FACTOR * budget, max(budget, timeLeft() / 2));
+    }
+
+    /** Return the time left on my clock in nanoseconds. */
+    long timeLeft() {
+        return max(0, _controller.timeLeft(_myPiece)) * 1_000_000L;
+    }
+
+    /** Return the value of the option NAME (see Controller.option), or its
+     *  default value if I have no controller. */
+    int option(String name) {
+        return _controller == null ? Controller.defaultOption(name)
+            : _controller.option(name);
+    }
+
+    /** The fewest moves I budget for when dividing up my remaining time,
+     *  so that time remains for later moves. */
+    private static final int MIN_MOVES_TO_GO = 8;
+    /** Empty squares per move I can expect still to make.  Each move
+     *  fills a square and the sides alternate, and games usually end with
+     *  some squares unreachable. */
+    private static final int EMPTY_SQUARES_PER_MOVE = 3;
+    /** Least time budget for a move (nanoseconds). */
+    private static final long MIN_BUDGET = 10_000_000L;
+    /** The hard limit for a move is at most this multiple of its time
+     *  budget. */
+    private static final long HARD_LIMIT_FACTOR = 3;
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -0,0 +1,268 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import static java.lang.Math.*;
+
+/** An exact endgame solver, using depth-first proof-number search
+ *  (df-pn).  Each position has a proof number, the least number of
+ *  positions whose values must be found to show that the side to move
+ *  wins, and a disproof number, the least number to show that it loses.
+ *  A finished position has proof number INFINITY and disproof number 0,
+ *  since the side to move has lost.  Otherwise, the proof number of a
+ *  position is the least disproof number of the positions after its
+ *  moves, and its disproof number is the sum of their proof numbers.
+ *  The search repeatedly descends to the position after the move with
+ *  the least disproof number, as long as that stays the least and the
+ *  position's numbers stay within thresholds, which are set so that it
+ *  returns as soon as another move looks more promising.
+ *
+ *  The numbers of the positions searched are kept in a table of their
+ *  own, organized like a TranspositionTable, with buckets of two
+ *  entries of which the first keeps the position whose numbers took the
+ *  most work to find.  Results are exact, so the table is kept from one
+ *  solve to the next.  Since every move fills a square, no position can
+ *  recur in a line of play, and there are no cycles to worry about.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class Solver {
+
+    /** Results of solve: a win or loss for the side to move, or not
+     *  solved within the budget. */
+    static final int WIN = 1, LOSS = -1, UNKNOWN = 0;
+
+    /** A solver whose node table occupies at most MEGABYTES megabytes
+     *  (and at least two entries). */
+    Solver(int megabytes) {
+        long entries = max(2, (long) megabytes * (1 << 20) / ENTRY_BYTES);
+        int size = Integer.highestOneBit((int) min(entries, 1 << 30));
+        _keys = new long[size];
+        _proof = new int[size];
+        _disproof = new int[size];
+        _work = new int[size];
+        _mask = size - 2;
+    }
+
+    /** Return whether the side to move in BOARD wins (WIN) or loses
+     *  (LOSS) with best play, or UNKNOWN if that could not be found by
+     *  searching at most MAXNODES positions before the time (as from
+     *  System.nanoTime) DEADLINE.  When the result is known, line gives a
+     *  line of play proving it.  BOARD is unchanged on return. */
+    int solve(Board board, long maxNodes, long deadline) {
+        return solve(board, maxNodes, () -> deadline, () -> false);
+    }
+
+    /** Return the result of BOARD as for solve(BOARD, MAXNODES, D), where
+     *  the deadline D is given by DEADLINE, which may change during the
+     *  search, and where the search also gives up once STOP is true.
+     *  Both are checked every CLOCK_CHECK_NODES positions, so that
+     *  another thread can cut the search short. */
+    int solve(Board board, long maxNodes, LongSupplier deadline,
+              BooleanSupplier stop) {
+        _board = board;
+        _maxNodes = maxNodes;
+        _deadline = deadline;
+        _stop = stop;
+        _nodes = 0;
+        _aborted = false;
+        _line.clear();
+        if (board.winner() != null) {
+            return board.winner() == board.turn() ? WIN : LOSS;
+        }
+        search(INFINITY, INFINITY, 0);
+        int k = find(board.key());
+        if (k < 0 || _proof[k] != 0 && _disproof[k] != 0) {
+            return UNKNOWN;
+        }
+        findLine();
+        return _proof[k] == 0 ? WIN : LOSS;
+    }
+
+    /** Return the line of play found by the last solve that gave a known
+     *  result: for a WIN, winning moves for the side to move and replies
+     *  for its opponent, ending in a finished game, and for a LOSS, the
+     *  reverse.  The line may be cut short if the table has lost some of
+     *  its positions. */
+    List<Move> line() {
+        return _line;
+    }
+
+    /** Return the number of positions visited by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Search the current position of _board, which is not finished,
+     *  until its proof number reaches THPROOF or its disproof number
+     *  reaches THDISPROOF, or the budget runs out, and record its proof
+     *  and disproof numbers in the table.  PLY is the depth of the
+     *  position below the one being solved. */
+    private void search(int thProof, int thDisproof, int ply) {
+        Board board = _board;
+        long key = board.key();
+        long startNodes = _nodes;
+        _nodes += 1;
+        if (_nodes >= _maxNodes
+            || (_nodes & (CLOCK_CHECK_NODES - 1)) == 0
+               && (_stop.getAsBoolean()
+                   || System.nanoTime() > _deadline.getAsLong())) {
+            _aborted = true;
+        }
+        MoveBuffer moves = buffer(ply);
+        int n = board.legalMoves(board.turn(), moves);
+        while (true) {
+            int proof = INFINITY, disproof = 0;
+            int best = 0, bestProof = 0, secondDisproof = INFINITY;
+            for (int i = 0; i < n; i += 1) {
+                int k = child(moves.get(i));
+                int childProof = _proof[k], childDisproof = _disproof[k];
+                disproof = min(INFINITY, disproof + childProof);
+                if (childDisproof < proof) {
+                    secondDisproof = proof;
+                    proof = childDisproof;
+                    best = moves.get(i);
+                    bestProof = childProof;
+                } else if (childDisproof < secondDisproof) {
+                    secondDisproof = childDisproof;
+                }
+            }
+            if (proof >= thProof || disproof >= thDisproof || _aborted) {
+                store(key, proof, disproof, _nodes - startNodes);
+                return;
+            }
+            board.makeMove(best);
+            search(thDisproof - disproof + bestProof,
+                   min(thProof, secondDisproof + secondDisproof / 4 + 1),
+                   ply + 1);
+            board.undo();
+        }
+    }
+
+    /** Return the index in the table of the position after the packed
+     *  MOVE in _board, entering it (as a finished position, or one with
+     *  both numbers 1) if it is not already there. */
+    private int child(int move) {
+        long key = _board.keyAfter(move);
+        int k = find(key);
+        if (k >= 0) {
+            return k;
+        }
+        _board.makeMove(move);
+        boolean finished = _board.winner() != null;
+        _board.undo();
+        if (finished) {
+            return store(key, INFINITY, 0, 0);
+        }
+        return store(key, 1, 1, 0);
+    }
+
+    /** Set _line to a line of play from _board that follows the proofs
+     *  in the table, as long as they last. */
+    private void findLine() {
+        Board board = _board;
+        MoveBuffer moves = buffer(0);
+        while (board.winner() == null) {
+            int k = find(board.key());
+            if (k < 0 || _proof[k] != 0 && _disproof[k] != 0) {
+                break;
+            }
+            boolean winning = _proof[k] == 0;
+            int n = board.legalMoves(board.turn(), moves);
+            int choice = 0;
+            for (int i = 0; i < n && choice == 0; i += 1) {
+                int c = find(board.keyAfter(moves.get(i)));
+                if (c >= 0 && (winning ? _disproof[c] : _proof[c]) == 0) {
+                    choice = moves.get(i);
+                }
+            }
+            if (choice == 0) {
+                break;
+            }
+            _line.add(Move.mv(choice));
+            board.makeMove(choice);
+        }
+        for (int i = 0; i < _line.size(); i += 1) {
+            board.undo();
+        }
+    }
+
+    /** Return the index of the table entry for the position with key
+     *  KEY, or -1 if there is none. */
+    private int find(long key) {
+        int k = (int) key & _mask;
+        if (_keys[k] == key) {
+            return k;
+        } else if (_keys[k + 1] == key) {
+            return k + 1;
+        }
+        return -1;
+    }
+
+    /** Record that the position with key KEY has proof number PROOF and
+     *  disproof number DISPROOF, found by searching WORK positions, and
+     *  return the index of its entry.  Its old entry is replaced if it
+     *  has one, and otherwise the first entry of its bucket if that took
+     *  no more work, and otherwise the second. */
+    private int store(long key, int proof, int disproof, long work) {
+        int k = (int) key & _mask;
+        if (_keys[k + 1] == key
+            || _keys[k] != key && _work[k] > min(work, Integer.MAX_VALUE)) {
+            k += 1;
+        }
+        _keys[k] = key;
+        _proof[k] = proof;
+        _disproof[k] = disproof;
+        _work[k] = (int) min(work, Integer.MAX_VALUE);
+        return k;
+    }
+
+    /** Return a MoveBuffer for the moves at depth PLY. */
+    private MoveBuffer buffer(int ply) {
+        if (ply >= _buffers.length) {
+            _buffers = Arrays.copyOf(_buffers, ply + 1);
+        }
+        if (_buffers[ply] == null) {
+            _buffers[ply] = new MoveBuffer();
+        }
+        return _buffers[ply];
+    }
+
+    /** A proof or disproof number too large to reach.  Sums are capped
+     *  at this, and it is small enough that they do not overflow. */
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+    /** Positions searched between checks of the clock (a power of 2). */
+    private static final long CLOCK_CHECK_NODES = 256;
+    /** Bytes per table entry. */
+    private static final int ENTRY_BYTES = 20;
+
+    /** Keys of the positions in the table. */
+    private final long[] _keys;
+    /** Proof and disproof numbers of the positions in the table. */
+    private final int[] _proof, _disproof;
+    /** Number of positions searched to find the numbers in each
+     *  entry. */
+    private final int[] _work;
+    /** Mask giving the index of the first entry of a key's bucket. */
+    private final int _mask;
+
+    /** The board being solved. */
+    private Board _board;
+    /** Move buffers for each depth of the search. */
+    private MoveBuffer[] _buffers = new MoveBuffer[0];
+    /** The line found by the last solve. */
+    private final List<Move> _line = new ArrayList<>();
+    /** Positions visited by the current solve. */
+    private long _nodes;
+    /** Budget of positions of the current solve. */
+    private long _maxNodes;
+    /** The deadline of the current solve (as from System.nanoTime). */
+    private LongSupplier _deadline;
+    /** True when the current solve should give up. */
+    private BooleanSupplier _stop;
+    /** True iff the current solve has run out of budget. */
+    private boolean _aborted;
+}
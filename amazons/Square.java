@@ -43,19 +43,7 @@ final class Square {
 
     /** Return true iff THIS - TO is a valid queen move. */
     boolean isQueenMove(Square to) {
-        if (this != to && to != null) {
-            if ((this.row() - to.row() != 0)
-                    && (this.col() - to.col() == 0)) {
-                return true;
-            } else if ((this.col() - to.col() != 0)
-                    && (this.row() - to.row() == 0)) {
-                return true;
-            } else if (Math.abs(this.col() - to.col())
-                    == Math.abs(this.row() - to.row())) {
-                return true;
-            }
-        }
-        return false;
+        return to != null && DIRECTIONS[_index][to._index] >= 0;
     }
 
     /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
@@ -74,46 +62,32 @@ final class Square {
     Square queenMove(int dir, int steps) {
         if (dir > 7 || dir < 0 || steps < 0) {
             return null;
+        } else if (steps == 0) {
+            return this;
         }
-        Square sQ;
-        int colDiff = (DIR[dir][0] * steps);
-        int rowDiff = (DIR[dir][1] * steps);
-        if (exists(this.col() + colDiff, this.row() + rowDiff)) {
-            sQ = sq(this.col() + colDiff, this.row() + rowDiff);
-            return sQ;
-        }
-        return null;
+        Square[] ray = RAYS[_index][dir];
+        return steps <= ray.length ? ray[steps - 1] : null;
+    }
+
+    /** Return the squares reached by going 1, 2, ... steps from me in
+     *  direction DIR (as for queenMove) up to the edge of the board,
+     *  nearest first.  The result is shared and must not be modified. */
+    Square[] ray(int dir) {
+        return RAYS[_index][dir];
+    }
+
+    /** Return the squares strictly between me and TO, nearest first, or
+     *  an empty array if THIS-TO is not a queen move.  The result is
+     *  shared and must not be modified. */
+    Square[] between(Square to) {
+        return BETWEEN[_index][to._index];
     }
 
     /** Return the direction (an int as defined in the documentation
      *  for queenMove) of the queen move THIS-TO. */
     int direction(Square to) {
         assert isQueenMove(to);
-        int colDiff = to.col() - this.col();
-        int rowDiff = to.row() - this.row();
-        if (colDiff > 0) {
-            if (rowDiff > 0) {
-                return 1;
-            } else if (rowDiff == 0) {
-                return 2;
-            } else {
-                return 3;
-            }
-        } else if (colDiff == 0) {
-            if (rowDiff > 0) {
-                return 0;
-            } else {
-                return 4;
-            }
-        } else {
-            if (rowDiff > 0) {
-                return 7;
-            } else if (rowDiff == 0) {
-                return 6;
-            } else {
-                return 5;
-            }
-        }
+        return DIRECTIONS[_index][to._index];
     }
 
     @Override
@@ -144,7 +118,7 @@ final class Square {
      *  COL ROW is the standard text format for a square (e.g., a4). */
     static Square sq(String col, String row) {
         int a = col.charAt(0) - 'a';
-        int b = Math.abs((row.charAt(0) - '0') - 1);
+        int b = Integer.parseInt(row) - 1;
         return sq(a, b);
     }
 
@@ -153,9 +127,7 @@ final class Square {
      *  valid square designation. */
     static Square sq(String posn) {
         assert posn.matches(SQ);
-        char[] tempCharArray = posn.toCharArray();
-        return sq(Character.toString(tempCharArray[0]),
-                Character.toString(tempCharArray[1]));
+        return sq(posn.substring(0, 1), posn.substring(1));
     }
 
     /** Return an iterator over all Squares. */
@@ -179,10 +151,47 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[S][DIR] is the value of sq(S).ray(DIR). */
+    private static final Square[][][] RAYS =
+        new Square[Board.SIZE * Board.SIZE][8][];
+
+    /** BETWEEN[S][T] is the value of sq(S).between(sq(T)). */
+    private static final Square[][][] BETWEEN =
+        new Square[Board.SIZE * Board.SIZE][Board.SIZE * Board.SIZE][];
+
+    /** DIRECTIONS[S][T] is the direction of the queen move from sq(S) to
+     *  sq(T), or -1 if there is no such move. */
+    private static final byte[][] DIRECTIONS =
+        new byte[Board.SIZE * Board.SIZE][Board.SIZE * Board.SIZE];
+
+    /** Shared value of between for squares that are not a queen move
+     *  apart. */
+    private static final Square[] NO_SQUARES = new Square[0];
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        for (Square from : SQUARES) {
+            Arrays.fill(BETWEEN[from._index], NO_SQUARES);
+            Arrays.fill(DIRECTIONS[from._index], (byte) -1);
+            for (int dir = 0; dir < 8; dir += 1) {
+                int n = 0;
+                while (exists(from._col + DIR[dir][0] * (n + 1),
+                              from._row + DIR[dir][1] * (n + 1))) {
+                    n += 1;
+                }
+                Square[] ray = new Square[n];
+                for (int k = 0; k < n; k += 1) {
+                    ray[k] = sq(from._col + DIR[dir][0] * (k + 1),
+                                from._row + DIR[dir][1] * (k + 1));
+                    BETWEEN[from._index][ray[k]._index] =
+                        Arrays.copyOf(ray, k);
+                    DIRECTIONS[from._index][ray[k]._index] = (byte) dir;
+                }
+                RAYS[from._index][dir] = ray;
+            }
+        }
     }
 
     /** My index position. */
@@ -0,0 +1,206 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static amazons.Piece.*;
+
+/** A tablebase of small regions: the exact values of regions (see
+ *  Board.regions) of at most a few squares holding one or two amazons,
+ *  read through a memory mapping, so that it occupies almost no heap
+ *  and lookups allocate nothing.
+ *
+ *  The value of a region is the number of moves White can make in it
+ *  minus the number Black can make.  For a region holding the amazons
+ *  of one side only, that is the most moves they can make in it
+ *  ("filling" it).  A region holding one amazon of each side is played
+ *  out with the sides alternating, starting with a given side, each
+ *  doing its best, until the side to move cannot move; the other side
+ *  then fills what is left.  That is a local game: it assumes that
+ *  nothing else is on the board, so that both sides move in the region
+ *  on every turn, and a side with no move there loses rather than
+ *  playing elsewhere.  The values of regions holding the amazons of
+ *  one side are exact on any board, but those of contested regions are
+ *  not, and do not simply add up (see Territory.score).  Like Territory
+ *  scores, values are from White's point of view, and count squares
+ *  each side can use.
+ *
+ *  A region is unchanged by moving it about the board, and its value
+ *  is unchanged by reflecting or rotating it, so each region is
+ *  recorded once, under a canonical key (see key).  The file starts
+ *  with the 8 bytes of MAGIC and the largest number of squares in a
+ *  region recorded, followed by records of RECORD_BYTES bytes each: a
+ *  key, and the values of the region with White and with Black to move,
+ *  all big-endian.  The records are sorted by key, and no two have the
+ *  same key.  TablebaseBuilder writes such files.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class Tablebase {
+
+    /** The first bytes of a tablebase file. */
+    static final long MAGIC = 0x414d5a5245474e31L;
+    /** The size of each record in bytes. */
+    static final int RECORD_BYTES = 10;
+    /** The size of the file header in bytes. */
+    static final int HEADER_BYTES = 12;
+    /** The largest number of squares in a region that may be recorded.
+     *  Its squares fit in a BOX x BOX square. */
+    static final int MAX_SQUARES = 7;
+    /** The width of the square in which key places a region. */
+    static final int BOX = MAX_SQUARES;
+    /** The value of a region that is not recorded. */
+    static final int NO_VALUE = Integer.MIN_VALUE;
+
+    /** Return the tablebase in the file named NAME.  Throws an
+     *  IOException if the file cannot be read or is not a tablebase. */
+    static Tablebase open(String name) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(name),
+                                                 StandardOpenOption.READ)) {
+            long size = file.size();
+            if (size < HEADER_BYTES
+                || (size - HEADER_BYTES) % RECORD_BYTES != 0
+                || size > Integer.MAX_VALUE) {
+                throw new IOException("not a tablebase: " + name);
+            }
+            MappedByteBuffer data =
+                file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int maxSquares = data.getInt(8);
+            if (data.getLong(0) != MAGIC
+                || maxSquares < 1 || maxSquares > MAX_SQUARES) {
+                throw new IOException("not a tablebase: " + name);
+            }
+            return new Tablebase(data, maxSquares);
+        }
+    }
+
+    /** A tablebase whose file contents are DATA, recording regions of
+     *  up to MAXSQUARES squares. */
+    private Tablebase(MappedByteBuffer data, int maxSquares) {
+        _data = data;
+        _maxSquares = maxSquares;
+        _size = (data.capacity() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    /** Return the number of records in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the largest number of squares in a region I record. */
+    int maxSquares() {
+        return _maxSquares;
+    }
+
+    /** Return the key of record K. */
+    long key(int k) {
+        return _data.getLong(HEADER_BYTES + k * RECORD_BYTES);
+    }
+
+    /** Return the value of record K with SIDE to move. */
+    int value(int k, Piece side) {
+        return _data.get(HEADER_BYTES + k * RECORD_BYTES
+                         + (side == WHITE ? 8 : 9));
+    }
+
+    /** Return the index of the record with key KEY, or -1 if there is
+     *  none, by binary search. */
+    int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < _size && key(lo) == key ? lo : -1;
+    }
+
+    /** Return the value, with the side to move in BOARD moving first, of
+     *  the region of BOARD with mask LO/HI (as from Board.regions), or
+     *  NO_VALUE if it is not recorded. */
+    int value(Board board, long lo, long hi) {
+        if (Long.bitCount(lo) + Long.bitCount(hi) > _maxSquares) {
+            return NO_VALUE;
+        }
+        int amazons = board.count(WHITE, lo, hi) + board.count(BLACK, lo, hi);
+        if (amazons == 0 || amazons > 2) {
+            return NO_VALUE;
+        }
+        int k = find(key(board, lo, hi));
+        return k < 0 ? NO_VALUE : value(k, board.turn());
+    }
+
+    /** Return the canonical key of the region of BOARD with mask LO/HI,
+     *  which must have at most MAX_SQUARES squares and two amazons.  For
+     *  each of the 8 reflections and rotations of the region, it is
+     *  placed in the corner of a BOX x BOX square, and encoded with its
+     *  squares, numbered from 0 row by row, as a mask in bits 14 and up.
+     *  Each amazon on square S is encoded as 1 + 2S, plus 1 if it is
+     *  Black, the one on the lower square in bits 7-13, and any other in
+     *  bits 0-6.  The key is the least of these 8 codes. */
+    static long key(Board board, long lo, long hi) {
+        int minCol = Board.SIZE, maxCol = -1,
+            minRow = Board.SIZE, maxRow = -1;
+        for (long l = lo, h = hi; (l | h) != 0; ) {
+            int s;
+            if (l != 0) {
+                s = Long.numberOfTrailingZeros(l);
+                l &= l - 1;
+            } else {
+                s = 64 + Long.numberOfTrailingZeros(h);
+                h &= h - 1;
+            }
+            int col = s % Board.SIZE, row = s / Board.SIZE;
+            minCol = Math.min(minCol, col);
+            maxCol = Math.max(maxCol, col);
+            minRow = Math.min(minRow, row);
+            maxRow = Math.max(maxRow, row);
+        }
+        long best = Long.MAX_VALUE;
+        for (int t = 0; t < 8; t += 1) {
+            long shape = 0;
+            int first = 0, second = 0;
+            for (long l = lo, h = hi; (l | h) != 0; ) {
+                int s;
+                if (l != 0) {
+                    s = Long.numberOfTrailingZeros(l);
+                    l &= l - 1;
+                } else {
+                    s = 64 + Long.numberOfTrailingZeros(h);
+                    h &= h - 1;
+                }
+                int col = s % Board.SIZE, row = s / Board.SIZE;
+                int x = (t & 1) == 0 ? col - minCol : maxCol - col,
+                    y = (t & 2) == 0 ? row - minRow : maxRow - row;
+                int cell = (t & 4) == 0 ? y * BOX + x : x * BOX + y;
+                shape |= 1L << cell;
+                Piece p = board.get(col, row);
+                if (p == WHITE || p == BLACK) {
+                    int code = 1 + 2 * cell + (p == BLACK ? 1 : 0);
+                    if (first == 0) {
+                        first = code;
+                    } else if (code < first) {
+                        second = first;
+                        first = code;
+                    } else {
+                        second = code;
+                    }
+                }
+            }
+            best = Math.min(best, shape << 14 | first << 7 | second);
+        }
+        return best;
+    }
+
+    /** The contents of my file. */
+    private final MappedByteBuffer _data;
+    /** The largest number of squares in a region recorded in _data. */
+    private final int _maxSquares;
+    /** The number of records in _data. */
+    private final int _size;
+}
@@ -0,0 +1,332 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import ucb.util.CommandArgs;
+
+import static amazons.Piece.*;
+
+/** Creates a Tablebase of all regions of up to a given number of
+ *  squares holding one or two amazons.  It enumerates the shapes of
+ *  regions (sets of squares connected by king steps) of each size in
+ *  turn, by adding a square next to each shape of the size before,
+ *  keeping one shape of each set of reflections and rotations.  For
+ *  each shape and each placement of one or two amazons of either
+ *  color, it finds the region's values by exhaustive search, playing
+ *  the region out on an otherwise full Board.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class TablebaseBuilder {
+
+    /** Build a tablebase as directed by ARGS: regions of up to
+     *  --squares=N squares (default and at most Tablebase.MAX_SQUARES),
+     *  written to the file named by the remaining argument. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--squares={0,1} --={1}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.TablebaseBuilder"
+                               + " [--squares=N] TABLEBASE");
+            System.exit(1);
+        }
+        int squares = options.contains("--squares")
+            ? Integer.parseInt(options.getFirst("--squares"))
+            : Tablebase.MAX_SQUARES;
+        if (squares < 1 || squares > Tablebase.MAX_SQUARES) {
+            System.err.printf("Regions may have 1 to %d squares.%n",
+                              Tablebase.MAX_SQUARES);
+            System.exit(1);
+        }
+        TablebaseBuilder builder = new TablebaseBuilder(squares);
+        for (int n = 1; n <= squares; n += 1) {
+            int shapes = builder.addSize();
+            System.out.printf("%d squares: %d shapes, %d records%n",
+                              n, shapes, builder.size());
+        }
+        try {
+            builder.write(options.getFirst("--"));
+        } catch (IOException excp) {
+            System.err.printf("Could not write tablebase: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A builder of a tablebase of regions of up to SQUARES squares. */
+    TablebaseBuilder(int squares) {
+        _maxSquares = squares;
+        _fills.put(WHITE, new HashMap<>());
+        _fills.put(BLACK, new HashMap<>());
+        for (int k = 0; k < _buffers.length; k += 1) {
+            _buffers[k] = new MoveBuffer();
+        }
+    }
+
+    /** Return the number of records I have. */
+    int size() {
+        return _records.size();
+    }
+
+    /** Record the values of all regions of my number of squares. */
+    void build() {
+        while (_squares < _maxSquares) {
+            addSize();
+        }
+    }
+
+    /** Record the values of all regions of one more square than those
+     *  recorded so far, and return the number of their shapes. */
+    int addSize() {
+        if (_squares == 0) {
+            _shapes.add(1L);
+        } else {
+            _shapes = grow(_shapes);
+        }
+        _squares += 1;
+        for (long shape : _shapes) {
+            addRegions(shape);
+        }
+        return _shapes.size();
+    }
+
+    /** Return the value recorded for the region of BOARD with mask LO/HI,
+     *  with SIDE to move, or Tablebase.NO_VALUE if there is none. */
+    int value(Board board, long lo, long hi, Piece side) {
+        byte[] values = _records.get(Tablebase.key(board, lo, hi));
+        return values == null ? Tablebase.NO_VALUE
+            : values[side == WHITE ? 0 : 1];
+    }
+
+    /** Write my records to a tablebase file named NAME, replacing any
+     *  file already there. */
+    void write(String name) throws IOException {
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(name)))) {
+            out.writeLong(Tablebase.MAGIC);
+            out.writeInt(_maxSquares);
+            for (Map.Entry<Long, byte[]> record : _records.entrySet()) {
+                out.writeLong(record.getKey());
+                out.write(record.getValue());
+            }
+        }
+    }
+
+    /** Return the shapes, as from shapeOf, made by adding one square
+     *  next to one of SHAPES. */
+    private TreeSet<Long> grow(TreeSet<Long> shapes) {
+        TreeSet<Long> result = new TreeSet<>();
+        for (long shape0 : shapes) {
+            long shape = shape0 << (SPAN + 1);
+            for (int cell = 0; cell < SPAN * SPAN; cell += 1) {
+                if ((shape & 1L << cell) != 0) {
+                    continue;
+                }
+                int x = cell % SPAN, y = cell / SPAN;
+                boolean adjacent = false;
+                for (int dx = -1; dx <= 1; dx += 1) {
+                    for (int dy = -1; dy <= 1; dy += 1) {
+                        int x1 = x + dx, y1 = y + dy;
+                        adjacent |= x1 >= 0 && x1 < SPAN && y1 >= 0
+                            && y1 < SPAN && (shape & 1L << (y1 * SPAN + x1))
+                            != 0;
+                    }
+                }
+                if (adjacent) {
+                    result.add(shapeOf(shape | 1L << cell));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the canonical form of the shape with mask SHAPE, whose
+     *  squares are numbered row by row in a SPAN x SPAN square: the same
+     *  shape, moved to the lower left corner of the square after
+     *  whichever reflection or rotation Tablebase.key chooses. */
+    private long shapeOf(long shape) {
+        place(shape);
+        long key = Tablebase.key(_board, _regionLo, _regionHi) >>> 14;
+        long result = 0;
+        for (int cell = 0; cell < Tablebase.BOX * Tablebase.BOX; cell += 1) {
+            if ((key & 1L << cell) != 0) {
+                int x = cell % Tablebase.BOX, y = cell / Tablebase.BOX;
+                result |= 1L << (y * SPAN + x);
+            }
+        }
+        return result;
+    }
+
+    /** Record the values of the regions of shape SHAPE (as from shapeOf)
+     *  holding one or two amazons. */
+    private void addRegions(long shape) {
+        int[] cells = new int[Long.bitCount(shape)];
+        for (int k = 0, cell = 0; cell < SPAN * SPAN; cell += 1) {
+            if ((shape & 1L << cell) != 0) {
+                cells[k] = cell;
+                k += 1;
+            }
+        }
+        _fills.get(WHITE).clear();
+        _fills.get(BLACK).clear();
+        _contests.clear();
+        Piece[] sides = { WHITE, BLACK };
+        for (int i = 0; i < cells.length; i += 1) {
+            for (Piece first : sides) {
+                addRegion(shape, cells[i], first, -1, EMPTY);
+                for (int j = i + 1; j < cells.length; j += 1) {
+                    for (Piece second : sides) {
+                        addRegion(shape, cells[i], first, cells[j], second);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Record the values of the region of shape SHAPE with an amazon
+     *  FIRST on cell CELL1 and, if CELL2 >= 0, one SECOND on CELL2, if
+     *  it is not already recorded. */
+    private void addRegion(long shape, int cell1, Piece first,
+                           int cell2, Piece second) {
+        place(shape);
+        putAmazons(cell1, first, cell2, second);
+        long key = Tablebase.key(_board, _regionLo, _regionHi);
+        if (_records.containsKey(key)) {
+            return;
+        }
+        byte[] values = new byte[2];
+        if (cell2 < 0 || first == second) {
+            values[0] = values[1] = (byte) (first == WHITE
+                                            ? fill(WHITE, 0)
+                                            : -fill(BLACK, 0));
+        } else {
+            values[0] = (byte) contest(0);
+            putAmazons(cell1, first.opponent(), cell2, second.opponent());
+            values[1] = (byte) -contest(0);
+        }
+        _records.put(key, values);
+    }
+
+    /** Set up _board, with White to move, with no amazons and with
+     *  spears on every square but those of the shape SHAPE (numbered row
+     *  by row in a SPAN x SPAN square), placed in the lower left corner,
+     *  and set _regionLo/_regionHi to the mask of those squares. */
+    private void place(long shape) {
+        _board.init();
+        _regionLo = _regionHi = 0;
+        for (int col = 0; col < Board.SIZE; col += 1) {
+            for (int row = 0; row < Board.SIZE; row += 1) {
+                boolean in = col < SPAN && row < SPAN
+                    && (shape & 1L << (row * SPAN + col)) != 0;
+                _board.put(in ? EMPTY : SPEAR, col, row);
+                int s = row * Board.SIZE + col;
+                if (in && s < 64) {
+                    _regionLo |= 1L << s;
+                } else if (in) {
+                    _regionHi |= 1L << (s - 64);
+                }
+            }
+        }
+    }
+
+    /** Put an amazon FIRST on cell CELL1 of the shape on _board and, if
+     *  CELL2 >= 0, one SECOND on CELL2. */
+    private void putAmazons(int cell1, Piece first, int cell2,
+                            Piece second) {
+        _board.put(first, cell1 % SPAN, cell1 / SPAN);
+        if (cell2 >= 0) {
+            _board.put(second, cell2 % SPAN, cell2 / SPAN);
+        }
+    }
+
+    /** Return the most moves SIDE's amazons can make on _board, without
+     *  any moves by the other side, searching with the move buffers for
+     *  DEPTH and deeper. */
+    private int fill(Piece side, int depth) {
+        Map<Long, Integer> memo = _fills.get(side);
+        Integer known = memo.get(_board.key());
+        if (known != null) {
+            return known;
+        }
+        MoveBuffer moves = buffer(depth);
+        int n = _board.legalMoves(side, moves);
+        int best = 0;
+        for (int k = 0; k < n; k += 1) {
+            _board.makeMove(moves.get(k));
+            best = Math.max(best, 1 + fill(side, depth + 1));
+            _board.undo();
+        }
+        memo.put(_board.key(), best);
+        return best;
+    }
+
+    /** Return the number of moves the side to move on _board can make
+     *  minus the number its opponent can make, with the sides alternating
+     *  (see Tablebase), searching with the move buffers for DEPTH and
+     *  deeper.  This plays the local game of the region alone: when the
+     *  side to move has no move in it, the game ends and the opponent
+     *  fills the rest, although on a real board that side would play
+     *  elsewhere and might come back. */
+    private int contest(int depth) {
+        Integer known = _contests.get(_board.key());
+        if (known != null) {
+            return known;
+        }
+        Piece side = _board.turn();
+        MoveBuffer moves = buffer(depth);
+        int n = _board.legalMoves(side, moves);
+        int best;
+        if (n == 0) {
+            best = -fill(side.opponent(), depth);
+        } else {
+            best = -Tablebase.MAX_SQUARES;
+            for (int k = 0; k < n; k += 1) {
+                _board.makeMove(moves.get(k));
+                best = Math.max(best, 1 - contest(depth + 1));
+                _board.undo();
+            }
+        }
+        _contests.put(_board.key(), best);
+        return best;
+    }
+
+    /** Return the move buffer for searches at DEPTH. */
+    private MoveBuffer buffer(int depth) {
+        return _buffers[depth];
+    }
+
+    /** The width of the square in which shapes are enumerated: room for
+     *  a shape of MAX_SQUARES - 1 squares and a square on either side,
+     *  to which grow may add. */
+    private static final int SPAN = Tablebase.MAX_SQUARES + 1;
+
+    /** The largest number of squares in a region I record. */
+    private final int _maxSquares;
+    /** The number of squares in the largest regions recorded so far. */
+    private int _squares;
+    /** The shapes of the regions of _squares squares, as from shapeOf. */
+    private TreeSet<Long> _shapes = new TreeSet<>();
+    /** My records: the values of each region with White and with Black
+     *  to move, by key, in the order of the tablebase file. */
+    private final TreeMap<Long, byte[]> _records = new TreeMap<>();
+    /** The board on which regions are played out. */
+    private final Board _board = new Board();
+    /** The mask of the squares of the region on _board. */
+    private long _regionLo, _regionHi;
+    /** The results of fill for the current shape, for each side, by
+     *  position key. */
+    private final Map<Piece, Map<Long, Integer>> _fills = new HashMap<>();
+    /** The results of contest for the current shape, by position key. */
+    private final Map<Long, Integer> _contests = new HashMap<>();
+    /** Move buffers for each search depth.  Each move fills a square of
+     *  the region, so no search goes deeper than MAX_SQUARES. */
+    private final MoveBuffer[] _buffers =
+        new MoveBuffer[Tablebase.MAX_SQUARES + 1];
+}
@@ -0,0 +1,170 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** An evaluator of positions by territory.  For each side, it finds the
+ *  queen distance of every empty square (the fewest queen moves one of
+ *  that side's amazons needs to reach it, ignoring the opponent's
+ *  replies and all spear throws), and likewise the king distance (the
+ *  fewest single steps).  Each is a breadth-first flood fill starting
+ *  from all of a side's amazons at once (see Board.distances).  An
+ *  empty square belongs to the side with the smaller queen distance,
+ *  or, if those are equal, to the side with the smaller king distance.
+ *  Squares that neither side can reach belong to neither.
+ *
+ *  A Territory keeps its distance maps in byte arrays, and a cache of
+ *  the scores of regions of the board, that are reused from one
+ *  evaluation to the next, so that evaluating allocates nothing.  For
+ *  the same reason, a Territory may be used by only one thread at a
+ *  time.  It may also consult a Tablebase for the values of small
+ *  regions.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class Territory {
+
+    /** The distance of a square that a side cannot reach. */
+    static final int UNREACHABLE = Byte.MAX_VALUE;
+
+    /** An evaluator that consults no tablebase. */
+    Territory() {
+        this(null);
+    }
+
+    /** An evaluator that takes the values of the regions in TABLEBASE
+     *  (null for none) from it. */
+    Territory(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the number of empty squares in BOARD that belong to White
+     *  minus the number that belong to Black.  This is the sum of the
+     *  scores of BOARD's regions (see Board.regions), since no amazon can
+     *  reach a square outside its own region.  A region with the amazons
+     *  of only one side belongs entirely to that side, and one with none
+     *  to neither, except that the value of a region with the amazons of
+     *  one side in my tablebase, if any, is taken from it instead: the
+     *  number of squares they can actually fill, which is exact.
+     *
+     *  The value of a region with amazons of both sides in my tablebase
+     *  assumes that the side to move in BOARD moves first in it, and
+     *  that nothing else is on the board.  The side to move has only one
+     *  move, so it is given that tempo in at most one such region: the
+     *  one where it gains most over the territory count, which is used
+     *  in the others.  This is a heuristic, not an exact value.
+     *
+     *  The territory counts of regions are cached by region key, so
+     *  that after a move, only the region it was made in needs new
+     *  distance maps. */
+    int score(Board board) {
+        int n = board.regions(_regionsLo, _regionsHi);
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int score = 0, tempo = 0, bestGain = Integer.MIN_VALUE;
+        for (int r = 0; r < n; r += 1) {
+            long lo = _regionsLo[r], hi = _regionsHi[r];
+            int white = board.count(WHITE, lo, hi),
+                black = board.count(BLACK, lo, hi);
+            if (white == 0 || black == 0) {
+                int value = _tablebase == null ? Tablebase.NO_VALUE
+                    : _tablebase.value(board, lo, hi);
+                if (value != Tablebase.NO_VALUE) {
+                    score += value;
+                    continue;
+                }
+                int empty = board.count(EMPTY, lo, hi);
+                score += white > 0 ? empty : black > 0 ? -empty : 0;
+                continue;
+            }
+            long key = board.regionKey(lo, hi);
+            int k = (int) key & (CACHE_SIZE - 1);
+            if (_cacheKeys[k] != key) {
+                findDistances(board, lo, hi);
+                _cacheKeys[k] = key;
+                _cacheScores[k] = regionScore(lo, hi);
+            }
+            int count = _cacheScores[k];
+            score += count;
+            if (_tablebase != null && white + black == 2) {
+                int value = _tablebase.value(board, lo, hi);
+                if (value != Tablebase.NO_VALUE
+                    && sense * (value - count) > bestGain) {
+                    bestGain = sense * (value - count);
+                    tempo = value - count;
+                }
+            }
+        }
+        return score + tempo;
+    }
+
+    /** Compute the queen and king distance maps for BOARD. */
+    void findDistances(Board board) {
+        findDistances(board, -1L, -1L);
+    }
+
+    /** Compute the queen and king distance maps for BOARD from just the
+     *  amazons in the mask LO/HI. */
+    private void findDistances(Board board, long lo, long hi) {
+        board.distances(WHITE, true, _queen[0], lo, hi);
+        board.distances(BLACK, true, _queen[1], lo, hi);
+        board.distances(WHITE, false, _king[0], lo, hi);
+        board.distances(BLACK, false, _king[1], lo, hi);
+    }
+
+    /** Return the queen distance of SQ from SIDE's amazons in the board
+     *  last given to findDistances, or UNREACHABLE. */
+    int queenDistance(Piece side, Square sq) {
+        return _queen[side == WHITE ? 0 : 1][sq.index()];
+    }
+
+    /** Return the king distance of SQ from SIDE's amazons in the board
+     *  last given to findDistances, or UNREACHABLE. */
+    int kingDistance(Piece side, Square sq) {
+        return _king[side == WHITE ? 0 : 1][sq.index()];
+    }
+
+    /** Return the number of empty squares in the region with mask
+     *  LO/HI that belong to White minus the number that belong to
+     *  Black, according to the current distance maps. */
+    private int regionScore(long lo, long hi) {
+        byte[] whiteQueen = _queen[0], blackQueen = _queen[1],
+            whiteKing = _king[0], blackKing = _king[1];
+        int score = 0;
+        while ((lo | hi) != 0) {
+            int s;
+            if (lo != 0) {
+                s = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                s = 64 + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            if (whiteQueen[s] == 0 || blackQueen[s] == 0) {
+                continue;
+            }
+            int diff = blackQueen[s] - whiteQueen[s];
+            if (diff == 0) {
+                diff = blackKing[s] - whiteKing[s];
+            }
+            score += Integer.signum(diff);
+        }
+        return score;
+    }
+
+    /** Number of squares on the board. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+    /** Number of entries in the cache of region scores (a power of 2). */
+    private static final int CACHE_SIZE = 1 << 12;
+    /** The tablebase of small regions, or null. */
+    private final Tablebase _tablebase;
+    /** Queen distance maps for White and Black. */
+    private final byte[][] _queen = new byte[2][SQUARES];
+    /** King distance maps for White and Black. */
+    private final byte[][] _king = new byte[2][SQUARES];
+    /** Masks of the regions of the board being scored. */
+    private final long[] _regionsLo = new long[Board.MAX_REGIONS],
+        _regionsHi = new long[Board.MAX_REGIONS];
+    /** The cache of region scores: entry K holds the score of the last
+     *  region scored whose key, _cacheKeys[K], ends in the bits of K. */
+    private final long[] _cacheKeys = new long[CACHE_SIZE];
+    /** Scores of the regions in _cacheKeys. */
+    private final int[] _cacheScores = new int[CACHE_SIZE];
+}
@@ -0,0 +1,110 @@
+package amazons;
+
+/** A fixed-size hash table of search results, indexed by position key
+ *  (Board.key).  Each entry records the depth to which a position was
+ *  searched, its score or a bound on it, and the best move found.
+ *
+ *  Entries live in two parallel long arrays, one word of data and one of
+ *  key per entry, with the key word stored XORed with the data word.  A
+ *  reader that sees a data word from one write and a key word from
+ *  another (because another thread wrote the entry in between) sees a
+ *  key mismatch, and treats the entry as missing.  So several search
+ *  threads may share a table without locking, at the cost of losing an
+ *  occasional entry.
+ *
+ *  The table is organized in buckets of two entries.  The first keeps
+ *  the deepest result for the positions hashing to it, and the second
+ *  always takes the latest result that did not qualify for the first.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class TranspositionTable {
+
+    /** Bound types: the score is exact, a lower bound, or an upper
+     *  bound (from the point of view of the side to move). */
+    static final int EXACT = 3, LOWER_BOUND = 1, UPPER_BOUND = 2;
+
+    /** Bytes per entry. */
+    private static final int ENTRY_BYTES = 16;
+
+    /** A table occupying at most MEGABYTES megabytes (and at least two
+     *  entries), with a power-of-two number of entries. */
+    TranspositionTable(int megabytes) {
+        long entries = Math.max(2, (long) megabytes * (1 << 20) / ENTRY_BYTES);
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+        _keys = new long[size];
+        _data = new long[size];
+        _mask = size - 2;
+    }
+
+    /** Return the number of entries in me. */
+    int size() {
+        return _data.length;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        java.util.Arrays.fill(_keys, 0);
+        java.util.Arrays.fill(_data, 0);
+    }
+
+    /** Return the data word for the position with key KEY, or 0 if there
+     *  is none.  Decode it with depth, bound, score, and move. */
+    long probe(long key) {
+        int k = (int) key & _mask;
+        long data = _data[k];
+        if ((_keys[k] ^ data) == key && data != 0) {
+            return data;
+        }
+        data = _data[k + 1];
+        if ((_keys[k + 1] ^ data) == key && data != 0) {
+            return data;
+        }
+        return 0;
+    }
+
+    /** Record that the position with key KEY was searched to depth DEPTH
+     *  (0 <= DEPTH < 256), giving SCORE with bound type BOUND, and that
+     *  its best move was packed MOVE (0 if none). */
+    void store(long key, int depth, int bound, int score, int move) {
+        long data = (score & 0xffffffffL) | ((long) move << 32)
+            | ((long) depth << 53) | ((long) bound << 61);
+        int k = (int) key & _mask;
+        long old = _data[k];
+        if ((_keys[k] ^ old) != key && depth(old) > depth) {
+            k += 1;
+        }
+        _data[k] = data;
+        _keys[k] = key ^ data;
+    }
+
+    /** Return the search depth recorded in DATA. */
+    static int depth(long data) {
+        return (int) (data >>> 53) & 0xff;
+    }
+
+    /** Return the bound type (EXACT, LOWER_BOUND, or UPPER_BOUND)
+     *  recorded in DATA. */
+    static int bound(long data) {
+        return (int) (data >>> 61);
+    }
+
+    /** Return the score recorded in DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the packed best move recorded in DATA, or 0 if none. */
+    static int move(long data) {
+        return (int) (data >>> 32) & 0x1fffff;
+    }
+
+    /** Keys of the entries, each XORed with the entry's data. */
+    private final long[] _keys;
+    /** Data words of the entries: the score in bits 0-31, the move in
+     *  bits 32-52, the depth in bits 53-60, and the bound in bits 61-62.
+     *  Since the bound is never 0, neither is the data of an entry in
+     *  use. */
+    private final long[] _data;
+    /** Mask giving the index of the first entry of a key's bucket. */
+    private final int _mask;
+}
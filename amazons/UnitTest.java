@@ -1,5 +1,8 @@
 package amazons;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.junit.Test;
 
 import static amazons.Piece.*;
@@ -41,6 +44,675 @@ public class UnitTest {
         assertTrue(Square.sq(7, 9).isQueenMove(Square.sq(0, 2)));
     }
 
+    /** Tests legality checks for complete moves, including spear throws
+     *  through the square just vacated. */
+    @Test
+    public void testIsLegal() {
+        Board b = new Board();
+        assertTrue(b.isLegal(Move.mv("d1-d7(d1)")));
+        assertTrue(b.isLegal(Move.mv("d1-d7(d4)")));
+        assertTrue(b.isLegal(Move.mv("g1-g9(d9)")));
+        assertFalse(b.isLegal(Move.mv("d1-d10(d9)")));
+        assertFalse(b.isLegal(Move.mv("d1-d7(d10)")));
+        assertFalse(b.isLegal(Move.mv("a7-a9(a10)")));
+        assertFalse(b.isLegal(Move.mv("a4-a7(a8)")));
+        assertTrue(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 5),
+                                     null));
+        assertFalse(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 6),
+                                      null));
+        assertTrue(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 6),
+                                     Square.sq(0, 6)));
+        assertTrue(b.isLegal(Move.mv("d1-d7(d1)").packed()));
+        assertFalse(b.isLegal(Move.mv("d1-d10(d9)").packed()));
+        assertFalse(b.isLegal(Move.pack(3, 100, 3)));
+        assertFalse(b.isLegal(-1));
+    }
+
+    /** Tests that undo restores a move whose spear lands on the square
+     *  the amazon left. */
+    @Test
+    public void testUndoSpearOnFrom() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(d1)"));
+        assertEquals(SPEAR, b.get(3, 0));
+        assertEquals(WHITE, b.get(3, 6));
+        assertEquals(BLACK, b.turn());
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(WHITE, b.turn());
+    }
+
+    /** Tests that winner notices a side with no moves, and that its
+     *  cached value is discarded when the board changes. */
+    @Test
+    public void testWinner() {
+        Board b = new Board();
+        assertNull(b.winner());
+        for (int col = 0; col < Board.SIZE; col += 1) {
+            for (int row = 0; row < 2; row += 1) {
+                if (b.get(col, row) == EMPTY) {
+                    b.put(SPEAR, Square.sq(col, row));
+                }
+            }
+        }
+        b.put(EMPTY, Square.sq(0, 3));
+        b.put(EMPTY, Square.sq(9, 3));
+        assertEquals(BLACK, b.winner());
+        b.put(EMPTY, Square.sq(2, 0));
+        assertNull(b.winner());
+    }
+
+    /** Tests conversion between Moves and their packed form. */
+    @Test
+    public void testPackedMoves() {
+        Move m = Move.mv("j10-a1(j1)");
+        int packed = m.packed();
+        assertEquals(99, Move.fromIndex(packed));
+        assertEquals(0, Move.toIndex(packed));
+        assertEquals(9, Move.spearIndex(packed));
+        assertSame(m, Move.mv(packed));
+        assertEquals(packed, Move.pack(99, 0, 9));
+    }
+
+    /** Tests the precomputed rays and between-square tables. */
+    @Test
+    public void testRaysAndBetween() {
+        Square d4 = Square.sq("d4");
+        assertEquals(6, d4.ray(0).length);
+        assertSame(Square.sq("d10"), d4.ray(0)[5]);
+        assertEquals(3, d4.ray(5).length);
+        assertSame(Square.sq("a1"), d4.ray(5)[2]);
+        assertSame(Square.sq("g7"), d4.queenMove(1, 3));
+        assertNull(d4.queenMove(1, 7));
+        assertEquals(2, d4.between(Square.sq("g7")).length);
+        assertSame(Square.sq("e5"), d4.between(Square.sq("g7"))[0]);
+        assertSame(Square.sq("f6"), d4.between(Square.sq("g7"))[1]);
+        assertEquals(0, d4.between(Square.sq("e4")).length);
+        assertEquals(0, d4.between(Square.sq("e6")).length);
+        assertEquals(6, Square.sq("j10").direction(Square.sq("a10")));
+    }
+
+    /** Tests that the incremental position key matches one computed from
+     *  scratch, and that it distinguishes the side to move. */
+    @Test
+    public void testKey() {
+        Board.setKeyVerification(true);
+        try {
+            Board b = new Board();
+            long initial = b.key();
+            assertEquals(b.computeKey(), initial);
+            b.makeMove(Move.mv("d1-d7(d1)"));
+            b.makeMove(Move.mv("a7-b7(a7)"));
+            Board copy = new Board(b);
+            assertEquals(b.key(), copy.key());
+            b.undo();
+            b.undo();
+            assertEquals(initial, b.key());
+
+            Board c = new Board();
+            c.makeMove(Move.mv("d1-d2(d1)"));
+            c.makeMove(Move.mv("a7-b7(a7)"));
+            c.makeMove(Move.mv("d2-d7(d2)"));
+            assertEquals(c.computeKey(), c.key());
+            assertNotEquals(copy.key(), c.key());
+            c.put(SPEAR, Square.sq("j1"));
+            assertEquals(c.computeKey(), c.key());
+        } finally {
+            Board.setKeyVerification(false);
+        }
+    }
+
+    /** Tests that copies have independent undo histories, and that undo
+     *  restores the move count, side to move and winner. */
+    @Test
+    public void testUndoStack() {
+        Board b = new Board();
+        assertEquals(0, b.numMoves());
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        b.makeMove(Move.mv("d1-d7(d1)"));
+        b.makeMove(Move.mv("a7-b7(a7)"));
+        assertEquals(2, b.numMoves());
+        assertEquals(Move.mv("a7-b7(a7)").packed(), b.move(1));
+        Board copy = new Board(b);
+        copy.undo();
+        copy.undo();
+        assertEquals(INIT_BOARD_STATE, copy.toString());
+        assertEquals(0, copy.numMoves());
+        assertEquals(2, b.numMoves());
+        assertEquals(BLACK, b.get(1, 6));
+        b.undo();
+        assertEquals(WHITE, b.get(3, 6));
+        assertEquals(BLACK, b.get(0, 6));
+        assertEquals(BLACK, b.turn());
+
+        Board end = allSpears();
+        end.put(WHITE, Square.sq("a1"));
+        end.put(BLACK, Square.sq("j10"));
+        end.put(EMPTY, Square.sq("a2"));
+        end.put(EMPTY, Square.sq("a3"));
+        end.put(EMPTY, Square.sq("j9"));
+        end.makeMove(Move.mv("a1-a2(a1)"));
+        end.makeMove(Move.mv("j10-j9(j10)"));
+        assertNull(end.winner());
+        end.makeMove(Move.mv("a2-a3(a2)"));
+        assertEquals(WHITE, end.winner());
+        end.undo();
+        assertNull(end.winner());
+        assertEquals(WHITE, end.turn());
+
+        Board full = allSpears();
+        full.put(WHITE, Square.sq("a1"));
+        full.put(EMPTY, Square.sq("a2"));
+        for (int k = 0; k < Board.MAX_MOVES; k += 1) {
+            full.makeMove(Move.mv(k % 2 == 0 ? "a1-a2(a1)" : "a2-a1(a2)")
+                          .packed());
+            full.put(EMPTY, Square.sq(k % 2 == 0 ? "a1" : "a2"));
+        }
+        try {
+            full.makeMove(Move.mv("a1-a2(a1)").packed());
+            fail("made more than MAX_MOVES moves");
+        } catch (IllegalStateException excp) {
+            assertEquals(Board.MAX_MOVES, full.numMoves());
+        }
+    }
+
+    /** Tests that the AI finds an immediately winning move at several
+     *  search depths, valuing it by its distance from the root alone. */
+    @Test
+    public void testAIFindsWin() {
+        int value = 0;
+        for (int depth = 1; depth <= 3; depth += 1) {
+            Board b = corridorBoard();
+            AI ai = new AI();
+            Move m = ai.findMove(b, depth);
+            if (depth == 1) {
+                value = ai.completedScore();
+            }
+            assertEquals(value, ai.completedScore());
+            assertTrue(b.isLegal(m));
+            b.makeMove(m);
+            assertEquals(WHITE, b.winner());
+        }
+    }
+
+    /** Tests that the Solver proves a win, giving a line of play that
+     *  wins, and that it respects its budget. */
+    @Test
+    public void testSolver() {
+        Board b = corridorBoard();
+        String before = b.toString();
+        Solver solver = new Solver(1);
+        assertEquals(Solver.WIN, solver.solve(b, 1000000, Long.MAX_VALUE));
+        assertEquals(before, b.toString());
+        for (Move m : solver.line()) {
+            assertTrue(b.isLegal(m));
+            b.makeMove(m);
+        }
+        assertEquals(WHITE, b.winner());
+        assertEquals(Solver.UNKNOWN,
+                     solver.solve(new Board(), 1, Long.MAX_VALUE));
+        assertEquals(Solver.UNKNOWN,
+                     solver.solve(new Board(), 1000000, System.nanoTime()));
+        assertEquals(Solver.UNKNOWN,
+                     solver.solve(new Board(), 1000000,
+                                  () -> Long.MAX_VALUE, () -> true));
+    }
+
+    /** Tests that an MCTSPlayer, with one thread or several, finds a
+     *  winning move and leaves the board unchanged. */
+    @Test
+    public void testMCTSFindsWin() {
+        for (int threads = 1; threads <= 2; threads += 1) {
+            Board b = corridorBoard();
+            String before = b.toString();
+            MCTSPlayer player = new MCTSPlayer();
+            Move m = player.findMove(b, 2000, Long.MAX_VALUE / 4, threads);
+            assertEquals(before, b.toString());
+            assertEquals(2000, player.iterations());
+            assertTrue(b.isLegal(m));
+            b.makeMove(m);
+            assertEquals(WHITE, b.winner());
+        }
+    }
+
+    /** Tests the distance maps and score of a Territory. */
+    @Test
+    public void testTerritory() {
+        Territory territory = new Territory();
+        assertEquals(0, territory.score(new Board()));
+        Board b = allSpears();
+        b.put(WHITE, Square.sq("a1"));
+        b.put(BLACK, Square.sq("j1"));
+        for (char col = 'b'; col <= 'i'; col += 1) {
+            b.put(EMPTY, Square.sq(col + "1"));
+        }
+        b.put(EMPTY, Square.sq("a2"));
+        b.put(EMPTY, Square.sq("e5"));
+        assertEquals(1, territory.score(b));
+        territory.findDistances(b);
+        assertEquals(1, territory.queenDistance(WHITE, Square.sq("e1")));
+        assertEquals(1, territory.queenDistance(BLACK, Square.sq("e1")));
+        assertEquals(4, territory.kingDistance(WHITE, Square.sq("e1")));
+        assertEquals(5, territory.kingDistance(BLACK, Square.sq("e1")));
+        assertEquals(2, territory.queenDistance(BLACK, Square.sq("a2")));
+        assertEquals(Territory.UNREACHABLE,
+                     territory.queenDistance(WHITE, Square.sq("e5")));
+        b.put(SPEAR, Square.sq("a2"));
+        assertEquals(0, territory.score(b));
+    }
+
+    /** Tests finding regions, and scoring positions with several. */
+    @Test
+    public void testRegions() {
+        Board b = new Board();
+        long[] lo = new long[Board.MAX_REGIONS],
+            hi = new long[Board.MAX_REGIONS];
+        assertEquals(1, b.regions(lo, hi));
+        assertEquals(4, b.count(WHITE, lo[0], hi[0]));
+        assertEquals(92, b.count(EMPTY, lo[0], hi[0]));
+        for (int row = 0; row < Board.SIZE; row += 1) {
+            b.put(SPEAR, Square.sq(5, row));
+        }
+        b.put(SPEAR, Square.sq("c5"));
+        b.put(SPEAR, Square.sq("d5"));
+        b.put(SPEAR, Square.sq("e5"));
+        b.put(SPEAR, Square.sq("a5"));
+        b.put(SPEAR, Square.sq("b5"));
+        assertEquals(3, b.regions(lo, hi));
+        assertEquals(2, b.count(WHITE, lo[0], hi[0]));
+        assertEquals(0, b.count(BLACK, lo[0], hi[0]));
+        assertEquals(2, b.count(WHITE, lo[1], hi[1]));
+        assertEquals(2, b.count(BLACK, lo[1], hi[1]));
+        assertEquals(0, b.count(WHITE, lo[2], hi[2]));
+        assertEquals(2, b.count(BLACK, lo[2], hi[2]));
+        long key = b.regionKey(lo[1], hi[1]);
+        assertNotEquals(key, b.regionKey(lo[0], hi[0]));
+        Territory territory = new Territory();
+        assertEquals(18 - 23, territory.score(b));
+        b.makeMove(Move.mv("d1-d4(c3)"));
+        assertEquals(3, b.regions(lo, hi));
+        assertEquals(key, b.regionKey(lo[1], hi[1]));
+        assertEquals(17 - 23, territory.score(b));
+        assertEquals(17 - 23, new Territory().score(b));
+    }
+
+    /** Tests writing an opening book with a BookBuilder, and reading it
+     *  back. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        File file = File.createTempFile("amazons", ".book");
+        file.deleteOnExit();
+        long key = new Board().key();
+        int m1 = Move.mv("d1-d7(d1)").packed(),
+            m2 = Move.mv("g1-g9(d9)").packed(),
+            m3 = Move.mv("a7-b7(a7)").packed();
+        BookBuilder builder = new BookBuilder(0);
+        builder.record(key, m1, 3, 1);
+        builder.record(key, m2, 2, 1);
+        builder.record(key, m2, 1, 2);
+        builder.record(key + 1, m3, 1, -1);
+        assertEquals(3, builder.size());
+        builder.write(file.getPath());
+        OpeningBook book = OpeningBook.open(file.getPath());
+        assertEquals(3, book.size());
+        int k = book.find(key);
+        assertTrue(k >= 0);
+        assertEquals(key, book.key(k));
+        assertEquals(m2, book.bestMove(key));
+        assertEquals(m3, book.bestMove(key + 1));
+        assertEquals(-1, book.find(key + 2));
+        assertEquals(0, book.bestMove(key - 1));
+
+        builder = new BookBuilder(0);
+        builder.add(book);
+        builder.record(key, m1, 1, 3);
+        builder.write(file.getPath());
+        assertEquals(m1, OpeningBook.open(file.getPath()).bestMove(key));
+
+        Controller controller = testController();
+        controller.setOption("depth", 1);
+        Board b = controller.board();
+        b.copy(corridorBoard());
+        int offBoard = 127 | 127 << 7 | 127 << 14;
+        builder = new BookBuilder(0);
+        builder.record(b.key(), offBoard, 1, 1);
+        builder.write(file.getPath());
+        controller.setBook(OpeningBook.open(file.getPath()));
+        assertEquals(offBoard, controller.book().bestMove(b.key()));
+        Move m = Move.mv(new AI(WHITE, controller).myMove());
+        assertTrue(b.isLegal(m));
+    }
+
+    /** Tests building a tablebase with a TablebaseBuilder, reading it
+     *  back, and scoring regions from it, giving the side to move the
+     *  first move in only one of two contested regions. */
+    @Test
+    public void testTablebase() throws IOException {
+        File file = File.createTempFile("amazons", ".tb");
+        file.deleteOnExit();
+        TablebaseBuilder builder = new TablebaseBuilder(3);
+        builder.build();
+        builder.write(file.getPath());
+        Tablebase tablebase = Tablebase.open(file.getPath());
+        assertEquals(builder.size(), tablebase.size());
+        assertEquals(3, tablebase.maxSquares());
+
+        Board b = allSpears();
+        b.put(WHITE, Square.sq("a1"));
+        b.put(EMPTY, Square.sq("b1"));
+        b.put(EMPTY, Square.sq("c1"));
+        b.put(BLACK, Square.sq("j1"));
+        b.put(EMPTY, Square.sq("j2"));
+        b.put(WHITE, Square.sq("j3"));
+        b.put(WHITE, Square.sq("h10"));
+        b.put(EMPTY, Square.sq("i10"));
+        b.put(BLACK, Square.sq("j10"));
+        long[] lo = new long[Board.MAX_REGIONS],
+            hi = new long[Board.MAX_REGIONS];
+        assertEquals(3, b.regions(lo, hi));
+        assertEquals(2, tablebase.value(b, lo[0], hi[0]));
+        assertEquals(1, tablebase.value(b, lo[1], hi[1]));
+        assertEquals(Tablebase.key(b, lo[1], hi[1]),
+                     Tablebase.key(b, lo[2], hi[2]));
+        assertEquals(1, tablebase.value(b, lo[2], hi[2]));
+        assertEquals(-1, builder.value(b, lo[2], hi[2], BLACK));
+        assertEquals(2, new Territory().score(b));
+        assertEquals(2 + 1, new Territory(tablebase).score(b));
+
+        b.makeMove(Move.mv("a1-b1(a1)"));
+        assertEquals(3, b.regions(lo, hi));
+        assertEquals(1, tablebase.value(b, lo[0], hi[0]));
+        assertEquals(-1, tablebase.value(b, lo[1], hi[1]));
+        assertEquals(1 - 1, new Territory(tablebase).score(b));
+        b.put(EMPTY, Square.sq("a2"));
+        b.put(EMPTY, Square.sq("a3"));
+        assertEquals(3, b.regions(lo, hi));
+        assertEquals(Tablebase.NO_VALUE, tablebase.value(b, lo[0], hi[0]));
+    }
+
+    /** Tests that split searches find the same moves as a serial search
+     *  to the same depth, regardless of the number of threads. */
+    @Test
+    public void testSplitSearch() {
+        for (int k = 1; k <= 2; k += 1) {
+            Board b = Perft.fixture(k);
+            String before = b.toString();
+            Move serial = new AI().findMove(b, k + 1);
+            assertSame(serial, new AI().splitFindMove(b, k + 1, 1, false));
+            assertSame(serial, new AI().splitFindMove(b, k + 1, 3, false));
+            assertSame(serial, new AI().splitFindMove(b, k + 1, 3, true));
+            assertEquals(before, b.toString());
+        }
+    }
+
+    /** Tests that the principal variation search, with the aspiration
+     *  windows of an iterative search, finds the same root value as a
+     *  full-window split search to the same depth, and a move that keeps
+     *  that value. */
+    @Test
+    public void testAspirationSearch() {
+        Controller controller = testController();
+        for (String option : new String[] { "lmr", "topk", "solve" }) {
+            controller.setOption(option, 0);
+        }
+        int[] depths = { 0, 2, 4, 3 };
+        for (int k = 1; k < Perft.FIXTURES.length; k += 1) {
+            Board b = Perft.fixture(k);
+            String before = b.toString();
+            controller.setOption("depth", depths[k]);
+            AI ai = new AI(b.turn(), controller);
+            Move m = ai.findMove(b, NO_LIMIT, NO_LIMIT, 1);
+            assertEquals(before, b.toString());
+            assertEquals(depths[k], ai.completedDepth());
+            AI reference = new AI();
+            reference.splitFindMove(b, depths[k], 1, false);
+            int value = reference.completedScore();
+            assertEquals(value, ai.completedScore());
+            reference.findMove(b, depths[k]);
+            assertEquals(value, reference.completedScore());
+            b.makeMove(m);
+            reference.splitFindMove(b, depths[k] - 1, 1, false);
+            assertEquals(value, -reference.completedScore());
+        }
+    }
+
+    /** Tests the selective search options (late move reductions, top
+     *  moves and ProbCut): with all of them off, the search finds the
+     *  value of the full-width search to the same depth, and with any of
+     *  them on, however aggressively, it still finds a forced win. */
+    @Test
+    public void testSelectiveSearch() {
+        Controller controller = testController();
+        controller.setOption("solve", 0);
+        String[] options = { "lmr", "topk", "probcut" };
+        for (String option : options) {
+            controller.setOption(option, 0);
+        }
+        controller.setOption("depth", 4);
+        Board b = Perft.fixture(2);
+        AI ai = new AI(b.turn(), controller);
+        ai.findMove(b, NO_LIMIT, NO_LIMIT, 1);
+        AI reference = new AI();
+        reference.findMove(b, 4);
+        assertEquals(reference.completedScore(), ai.completedScore());
+
+        int[][] settings = {
+            { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, 1 },
+            { 0, 0, Integer.MAX_VALUE }, { 1, 1, 1 }
+        };
+        for (int[] setting : settings) {
+            for (int k = 0; k < options.length; k += 1) {
+                controller.setOption(options[k], setting[k]);
+            }
+            for (int depth = 1; depth <= 4; depth += 1) {
+                controller.setOption("depth", depth);
+                b = corridorBoard();
+                Move m = new AI(WHITE, controller)
+                    .findMove(b, NO_LIMIT, NO_LIMIT, 1);
+                assertTrue(b.isLegal(m));
+                b.makeMove(m);
+                assertEquals(WHITE, b.winner());
+            }
+        }
+    }
+
+    /** Tests that Lazy SMP searches with several threads, under time
+     *  limits, find legal moves and leave the board unchanged. */
+    @Test
+    public void testLazySMP() {
+        for (int k = 0; k < Perft.FIXTURES.length; k += 1) {
+            Board b = Perft.fixture(k);
+            String before = b.toString();
+            Move m = new AI().findMove(b, 50_000_000L, 200_000_000L, 3);
+            assertEquals(before, b.toString());
+            assertNotNull(m);
+            assertTrue(b.isLegal(m));
+        }
+    }
+
+    /** Tests pondering at a fixed depth: after each of its moves, the AI
+     *  ponders the reply it expects, and moveMade returns at once, without
+     *  changing the board, whether that reply is played (a hit) or not (a
+     *  miss).  Either way, and after cancelPondering, the AI goes on to
+     *  play legal moves. */
+    @Test
+    public void testPondering() {
+        Controller controller = testController();
+        controller.setOption("ponder", 1);
+        controller.setOption("depth", 2);
+        Board b = controller.board();
+        b.copy(Perft.fixture(1));
+        AI ai = new AI(b.turn(), controller);
+
+        playAI(ai, b);
+        Move hit = ai.expectedReply();
+        assertNotNull(hit);
+        assertTrue(b.isLegal(hit));
+        tellMove(ai, b, hit);
+        assertTrue(ai.pondering());
+        playAI(ai, b);
+
+        Move expected = ai.expectedReply();
+        assertNotNull(expected);
+        MoveBuffer moves = new MoveBuffer();
+        b.legalMoves(b.turn(), moves);
+        Move miss = Move.mv(moves.get(0));
+        if (miss == expected) {
+            miss = Move.mv(moves.get(1));
+        }
+        tellMove(ai, b, miss);
+        assertTrue(ai.pondering());
+        playAI(ai, b);
+
+        String before = b.toString();
+        assertTrue(ai.pondering());
+        ai.cancelPondering();
+        assertFalse(ai.pondering());
+        assertNull(ai.expectedReply());
+        assertEquals(before, b.toString());
+    }
+
+    /** Have AI, whose controller's board is B, choose a move, checking
+     *  that it is legal and that B is unchanged and no longer pondered,
+     *  and then make it as by tellMove. */
+    private void playAI(AI ai, Board b) {
+        String before = b.toString();
+        Move move = Move.mv(ai.myMove());
+        assertEquals(before, b.toString());
+        assertFalse(ai.pondering());
+        assertTrue(b.isLegal(move));
+        tellMove(ai, b, move);
+    }
+
+    /** Make MOVE on B, the board of AI's controller, and tell AI of it, as
+     *  the controller does, checking that AI leaves B unchanged. */
+    private void tellMove(AI ai, Board b, Move move) {
+        b.makeMove(move);
+        String after = b.toString();
+        ai.moveMade(move);
+        assertEquals(after, b.toString());
+    }
+
+    /** Return a board, with White to move, on which only a9 (White),
+     *  j10 (Black), a8 and b9 through i9 are not spears, so that White
+     *  can win at once by walling in Black. */
+    private Board corridorBoard() {
+        Board b = allSpears();
+        b.put(WHITE, Square.sq("a9"));
+        b.put(BLACK, Square.sq("j10"));
+        for (char col = 'b'; col <= 'i'; col += 1) {
+            b.put(EMPTY, Square.sq(col + "9"));
+        }
+        b.put(EMPTY, Square.sq("a8"));
+        return b;
+    }
+
+    /** Return a board, with White to move, holding only spears. */
+    private Board allSpears() {
+        Board b = new Board();
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            b.put(SPEAR, Square.sq(k));
+        }
+        return b;
+    }
+
+    /** Return a Controller for tests of its players, which displays and
+     *  reports nothing. */
+    private Controller testController() {
+        Reporter quiet = new Reporter() {
+            @Override
+            public void reportError(String format, Object... args) {
+            }
+
+            @Override
+            public void reportNote(String format, Object... args) {
+            }
+
+            @Override
+            public void reportMove(Move move) {
+            }
+        };
+        return new Controller(board -> { }, null, quiet, new AI(), new AI());
+    }
+
+    /** Tests storing, probing, and replacing transposition table
+     *  entries. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1 << 16, table.size());
+        int move = Move.mv("j10-a10(b9)").packed();
+        long k1 = 0x1234_5678_9abc_0002L, k2 = k1 + (1L << 40),
+            k3 = k1 + (1L << 41);
+        assertEquals(0, table.probe(k1));
+        table.store(k1, 7, TranspositionTable.UPPER_BOUND, -1234, move);
+        long entry = table.probe(k1);
+        assertEquals(7, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.UPPER_BOUND,
+                     TranspositionTable.bound(entry));
+        assertEquals(-1234, TranspositionTable.score(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(0, table.probe(k2));
+
+        table.store(k2, 3, TranspositionTable.EXACT, 5, 0);
+        table.store(k3, 2, TranspositionTable.EXACT, 6, 0);
+        assertEquals(7, TranspositionTable.depth(table.probe(k1)));
+        assertEquals(0, table.probe(k2));
+        assertEquals(6, TranspositionTable.score(table.probe(k3)));
+        table.store(k2, 8, TranspositionTable.LOWER_BOUND, 5, 0);
+        assertEquals(8, TranspositionTable.depth(table.probe(k2)));
+        table.store(k2, 1, TranspositionTable.EXACT, 9, 0);
+        assertEquals(9, TranspositionTable.score(table.probe(k2)));
+        table.clear();
+        assertEquals(0, table.probe(k2));
+    }
+
+    /** Tests storing, probing, and replacing eval cache entries, and
+     *  counting hits and misses. */
+    @Test
+    public void testEvalCache() {
+        EvalCache cache = new EvalCache(1);
+        assertEquals(1 << 16, cache.size());
+        long k1 = 0x1234_5678_9abc_0002L, k2 = k1 + (1L << 40);
+        assertEquals(0, cache.probe(k1));
+        cache.store(k1, 0);
+        assertEquals(0, EvalCache.score(cache.probe(k1)));
+        cache.store(k1, -17);
+        assertEquals(-17, EvalCache.score(cache.probe(k1)));
+        assertEquals(0, cache.probe(k2));
+        cache.store(k2, 23);
+        assertEquals(0, cache.probe(k1));
+        assertEquals(23, EvalCache.score(cache.probe(k2)));
+        assertEquals(3, cache.hits());
+        assertEquals(3, cache.misses());
+        cache.clear();
+        assertEquals(0, cache.probe(k2));
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    /** Tests reordering the moves in a MoveBuffer. */
+    @Test
+    public void testMoveBufferOrdering() {
+        MoveBuffer moves = new MoveBuffer(2);
+        for (int move = 1; move <= 6; move += 1) {
+            moves.add(move);
+        }
+        assertTrue(moves.moveToFront(4));
+        assertTrue(moves.moveTo(6, 1));
+        assertFalse(moves.moveTo(4, 1));
+        int[] scores = { 0, 0, 5, -3, 7, 5 };
+        for (int k = 2; k < moves.size(); k += 1) {
+            moves.setScore(k, scores[moves.get(k) - 1]);
+        }
+        moves.sortByScore(2);
+        int[] expected = { 4, 6, 5, 3, 2, 1 };
+        for (int k = 0; k < expected.length; k += 1) {
+            assertEquals(expected[k], moves.get(k));
+        }
+    }
+
     /** Tests toString for initial board state and a smiling board state. :) */
     @Test
     public void testToString() {
@@ -78,6 +750,10 @@ public class UnitTest {
         b.put(WHITE, Square.sq(7, 3));
     }
 
+    /** A time limit, in nanoseconds, that searches in tests never
+     *  reach. */
+    private static final long NO_LIMIT = 1_000_000_000_000L;
+
     static final String INIT_BOARD_STATE =
             "   - - - B - - B - - -\n"
                     +